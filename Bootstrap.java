@@ -0,0 +1,152 @@
+/*
+ * Bootstrap.java
+ *
+ * Computes bootstrap support values for the clades of a phylogenetic tree
+ *
+ * Each replicate resamples the columns of the alignment with replacement.
+ * Rather than writing out and re-reading a new alignment, a replicate is
+ * just a vector of pattern weights over the one shared SitePatterns, and
+ * its tree is built from those weights. Replicates are built concurrently
+ * on a pool of worker threads, and the clades of each replicate tree are
+ * tallied against the clades of the main tree by their hashes (see Splits).
+ *
+ * Replicate r draws its columns from new Random(seed + r), so the support
+ * values do not depend on the number of threads. With the reference engine
+ * (see ReferenceBuilder) each replicate is instead a real resampled
+ * alignment, built the slow way, which gives the same support values.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+public class Bootstrap {
+    private SitePatterns patterns;     // The shared, compressed alignment
+    private TreeOptions options;       // Replicate count, seed and thread count
+
+    // CONSTRUCTOR
+
+    // Bootstrap
+    // Pre-conditions:
+    //        - patterns holds the alignment the main tree was built from
+    //        - options is non-null
+    // Post-conditions:
+    //        - A bootstrap over patterns with options.getReplicates()
+    //          replicates has been set up (nothing is built yet)
+    public Bootstrap(SitePatterns patterns, TreeOptions options) {
+        this.patterns = patterns;
+        this.options = options;
+        return;
+    }
+
+    // support
+    // Pre-conditions:
+    //        - root is the root of the tree built from the alignment
+    // Post-conditions:
+    //        - Returns, for every non-terminal below root, the fraction of
+    //          replicate trees that contain the same clade
+    public HashMap<PhyloTreeNode, Double> support(PhyloTreeNode root) {
+        Splits main = new Splits(root);
+        final HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+        for (long hash : main.hashes()) {
+            index.put(hash, index.size());
+        }
+        final AtomicIntegerArray counts = new AtomicIntegerArray(index.size());
+        int replicates = this.options.getReplicates();
+
+        // each replicate tree is built on a single thread; the parallelism
+        // comes from building several replicates at once, so they share the
+        // heap budget and the page cache of a single build
+        int threads = Math.max(1, Math.min(this.options.getThreads(), replicates));
+        final TreeOptions replicateOptions = new TreeOptions(this.options);
+        replicateOptions.setThreads(1);
+        replicateOptions.setCheckpointDir(null);
+        replicateOptions.setWorkers(0);
+        replicateOptions.setHeapBudget(this.options.getHeapBudget() / threads);
+        replicateOptions.setPageCacheBytes(this.options.getPageCacheBytes() / threads);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+        for (int r = 0; r < replicates; r++) {
+            final int replicate = r;
+            pending.add(workers.submit(() -> {
+                long seed = this.options.getSeed() + replicate;
+                PhyloTreeNode tree;
+                if (replicateOptions.getEngine().equals(TreeOptions.ENGINE_REFERENCE)) {
+                    tree = new ReferenceBuilder(resampleSpecies(seed), replicateOptions).build();
+                } else {
+                    tree = new ClusterBuilder(this.patterns, resample(seed), replicateOptions).build();
+                }
+                for (long hash : new Splits(tree).hashes()) {
+                    Integer clade = index.get(hash);
+                    if (clade != null) {
+                        counts.incrementAndGet(clade);
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> replicate : pending) {
+                replicate.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error: Bootstrap replicate failed " + e);
+            System.exit(1);
+        } finally {
+            workers.shutdown();
+        }
+
+        HashMap<PhyloTreeNode, Double> support = new HashMap<PhyloTreeNode, Double>();
+        for (Map.Entry<Long, Integer> clade : index.entrySet()) {
+            support.put(main.getNode(clade.getKey()), ((double) counts.get(clade.getValue())) / replicates);
+        }
+        return support;
+    }
+
+    // resample
+    // Pre-conditions:
+    //        - seed identifies the replicate
+    // Post-conditions:
+    //        - Returns pattern weights for getLength() columns drawn with
+    //          replacement from the original alignment (invariant columns are
+    //          drawn too, but add no weight since they never mismatch)
+    public int[] resample(long seed) {
+        Random random = new Random(seed);
+        int[] weights = new int[this.patterns.getNumPatterns()];
+        for (int c = 0; c < this.patterns.getLength(); c++) {
+            int pattern = this.patterns.getColumnPattern(random.nextInt(this.patterns.getLength()));
+            if (pattern >= 0) {
+                weights[pattern]++;
+            }
+        }
+        return weights;
+    }
+
+    // resampleSpecies
+    // Pre-conditions:
+    //        - seed identifies the replicate
+    // Post-conditions:
+    //        - Returns the species with the same getLength() columns that
+    //          resample(seed) draws, as a new alignment
+    public Species[] resampleSpecies(long seed) {
+        Random random = new Random(seed);
+        int[] columns = new int[this.patterns.getLength()];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = random.nextInt(this.patterns.getLength());
+        }
+        Species[] species = this.patterns.getSpecies();
+        Species[] replicate = new Species[species.length];
+        for (int s = 0; s < species.length; s++) {
+            String[] drawn = new String[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                drawn[c] = species[s].getSequence()[columns[c]];
+            }
+            replicate[s] = new Species(species[s].getName(), drawn);
+        }
+        return replicate;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Checkpoint.java
+ *
+ * Saves the progress of a clustering run to a directory, so that a run
+ * that is killed can pick up where it left off
+ *
+ * Each input gets its own subdirectory, named by the fingerprint of the
+ * input in hex, so several inputs (the files of one Program2 list, say)
+ * can be checkpointed in the same directory, and building one never
+ * touches the checkpoint of another. While checkpointing, the distance
+ * matrix lives in the file "matrix" in that subdirectory. A checkpoint
+ * consists of a copy of that matrix, kept in one of the two files
+ * "matrix.0" and "matrix.1", plus the file "checkpoint", which holds
+ *
+ *   - the number of species and a fingerprint of the input, so that a
+ *     checkpoint of some other input is never resumed
+ *   - which of the two copies belongs to it
+ *   - every merge made so far (the two slots and their distance)
+ *   - the slots of the clusters still active
+ *
+ * Checkpoints are written on a background thread while clustering goes
+ * on: only the matrix pages changed since the copy was last brought up
+ * to date are copied (see FileDistanceMatrix.beginSnapshot), and the
+ * "checkpoint" file is replaced, by renaming, only once the copy has
+ * reached the disk. The two copies alternate, so the copy a complete
+ * checkpoint refers to is never the one being written. Once the build is
+ * complete, the subdirectory and everything in it are removed.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+public class Checkpoint {
+    private static final int MAGIC = 0x50544350;     // "PTCP"
+    private static final int VERSION = 3;
+    private File dir;                     // Where the checkpoint files of this input go
+    private int n;                        // Number of species
+    private long fingerprint;             // Identifies the input being clustered
+    private long interval;                // Nanoseconds between checkpoints
+    private long lastSave;                // System.nanoTime() of the last checkpoint
+    private FileDistanceMatrix matrix;    // The working matrix (in dir/matrix)
+    private DistanceMatrix distance;      // matrix, as the clustering sees it
+    private RandomAccessFile[] copies;    // The two copies of the matrix
+    private int[] copyEpoch;              // Snapshot each copy holds (-1 if unknown)
+    private int current;                  // The copy of the last complete checkpoint (-1 if none)
+    private int[] space1;                 // The merges made so far: the slot kept,
+    private int[] space2;                 // the slot merged away,
+    private double[] shortDistance;       // and the distance between them
+    private int merges;                   // Number of merges made so far
+    private int resumed;                  // Number of merges restored from disk
+    private ExecutorService writer;       // Writes checkpoints in the background
+    private Future<?> saving;             // The checkpoint being written (null if none)
+
+    // CONSTRUCTOR
+
+    // Checkpoint
+    // Pre-conditions:
+    //        - patterns and weights are the input to a ClusterBuilder
+    //        - options.getCheckpointDir() is non-null
+    // Post-conditions:
+    //        - If the directory holds a complete checkpoint for this input,
+    //          it has been restored: the working matrix holds the distances
+    //          as they were then, and getResumed() merges can be replayed
+    //        - Else the working matrix is new and holds zeros
+    //        - Checkpoints of other inputs in the directory are left alone
+    //        - If the directory cannot be used, an error is reported and the
+    //          program exits with status 1
+    public Checkpoint(SitePatterns patterns, int[] weights, TreeOptions options) {
+        this.n = patterns.getNumSpecies();
+        this.fingerprint = fingerprint(patterns, weights, options.getPrecision());
+        this.dir = new File(options.getCheckpointDir(), String.format("%016x", this.fingerprint));
+        this.interval = TimeUnit.SECONDS.toNanos(options.getCheckpointInterval());
+        this.copyEpoch = new int[] { -1, -1 };
+        this.current = -1;
+        this.space1 = new int[Math.max(0, this.n - 1)];
+        this.space2 = new int[this.space1.length];
+        this.shortDistance = new double[this.space1.length];
+        boolean single = !options.getPrecision().equals(TreeOptions.PRECISION_DOUBLE);
+        try {
+            this.dir.mkdirs();
+            restore(single);
+            this.matrix = new FileDistanceMatrix(new File(this.dir, "matrix"), this.n, options.getPageCacheBytes(), single);
+            this.copies = new RandomAccessFile[2];
+            for (int c = 0; c < 2; c++) {
+                this.copies[c] = new RandomAccessFile(new File(this.dir, "matrix." + c), "rw");
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Unable to use checkpoint directory " + this.dir + " " + e);
+            System.exit(1);
+        }
+        this.distance = this.matrix;
+        if (options.getPrecision().equals(TreeOptions.PRECISION_COUNTS)) {
+            this.distance = new MismatchCountMatrix(patterns, this.matrix);
+        }
+        this.writer = Executors.newSingleThreadExecutor();
+        this.lastSave = System.nanoTime();
+        return;
+    }
+
+    // ACCESSORS
+
+    // getMatrix
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the working distance matrix
+    public DistanceMatrix getMatrix() {
+        return this.distance;
+    }
+
+    // getResumed
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of merges restored from the directory
+    //          (-1 if nothing was restored)
+    public int getResumed() {
+        return this.resumed;
+    }
+
+    // getSpace1, getSpace2, getShortDistance
+    // Pre-conditions:
+    //        - 0 <= merge < the number of merges recorded or restored
+    // Post-conditions:
+    //        - Return the slot kept by that merge, the slot merged away, and
+    //          the distance between the two clusters
+    public int getSpace1(int merge) {
+        return this.space1[merge];
+    }
+
+    public int getSpace2(int merge) {
+        return this.space2[merge];
+    }
+
+    public double getShortDistance(int merge) {
+        return this.shortDistance[merge];
+    }
+
+    // isDue
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if the interval has passed since the last
+    //          checkpoint and that checkpoint has been written
+    public boolean isDue() {
+        return System.nanoTime() - this.lastSave >= this.interval
+            && (this.saving == null || this.saving.isDone());
+    }
+
+    // MODIFIERS
+
+    // record
+    // Pre-conditions:
+    //        - The clusters in slots space1 and space2 have just been merged
+    //          into space1, at distance shortDistance
+    // Post-conditions:
+    //        - The merge will be part of the next checkpoint
+    public void record(int space1, int space2, double shortDistance) {
+        this.space1[this.merges] = space1;
+        this.space2[this.merges] = space2;
+        this.shortDistance[this.merges] = shortDistance;
+        this.merges++;
+        return;
+    }
+
+    // save
+    // Pre-conditions:
+    //        - active lists the slots of the active clusters
+    //        - The matrix is not being changed during the call
+    // Post-conditions:
+    //        - A checkpoint of the current state is being written in the
+    //          background; the matrix may be changed once save returns
+    public void save(int[] active) {
+        finishSaving();
+        final int copy = (this.current == 0) ? 1 : 0;
+        final int merges = this.merges;
+        try {
+            final int epoch = this.matrix.beginSnapshot(this.copies[copy], this.copyEpoch[copy]);
+            this.copyEpoch[copy] = -1;
+            this.saving = this.writer.submit(() -> {
+                this.matrix.copySnapshot();
+                this.copies[copy].getFD().sync();
+                this.copyEpoch[copy] = epoch;
+                writeState(copy, merges, active);
+                this.current = copy;
+                return null;
+            });
+        } catch (IOException e) {
+            System.err.println("Error: Unable to write checkpoint " + e);
+            System.exit(1);
+        }
+        this.lastSave = System.nanoTime();
+        return;
+    }
+
+    // finish
+    // Pre-conditions:
+    //        - Clustering is complete
+    // Post-conditions:
+    //        - Any checkpoint being written has finished, and the checkpoint
+    //          files of this input have been removed (the working matrix is
+    //          removed when it is closed, and its subdirectory with it)
+    public void finish() {
+        finishSaving();
+        this.writer.shutdown();
+        try {
+            for (int c = 0; c < 2; c++) {
+                this.copies[c].close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Unable to close checkpoint " + e);
+        }
+        new File(this.dir, "checkpoint").delete();
+        new File(this.dir, "checkpoint.tmp").delete();
+        for (int c = 0; c < 2; c++) {
+            new File(this.dir, "matrix." + c).delete();
+        }
+        return;
+    }
+
+    // close
+    // Pre-conditions:
+    //        - finish has been called, and the working matrix closed
+    // Post-conditions:
+    //        - The subdirectory of this input has been removed, if it is
+    //          empty
+    public void close() {
+        this.dir.delete();
+        return;
+    }
+
+    // finishSaving
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The checkpoint being written, if any, is complete
+    //        - If it could not be written, an error is reported and the
+    //          program exits with status 1
+    private void finishSaving() {
+        if (this.saving == null) {
+            return;
+        }
+        try {
+            this.saving.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error: Unable to write checkpoint " + e);
+            System.exit(1);
+        }
+        this.saving = null;
+        return;
+    }
+
+    // writeState
+    // Pre-conditions:
+    //        - Copy copy holds the matrix after the first merges merges
+    // Post-conditions:
+    //        - The checkpoint file refers to that copy and those merges
+    private void writeState(int copy, int merges, int[] active) throws IOException {
+        File temporary = new File(this.dir, "checkpoint.tmp");
+        FileOutputStream file = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.n);
+            out.writeLong(this.fingerprint);
+            out.writeInt(copy);
+            out.writeInt(merges);
+            for (int m = 0; m < merges; m++) {
+                out.writeInt(this.space1[m]);
+                out.writeInt(this.space2[m]);
+                out.writeDouble(this.shortDistance[m]);
+            }
+            out.writeInt(active.length);
+            for (int slot : active) {
+                out.writeInt(slot);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!temporary.renameTo(new File(this.dir, "checkpoint"))) {
+            throw new IOException("Unable to replace " + new File(this.dir, "checkpoint"));
+        }
+        return;
+    }
+
+    // restore
+    // Pre-conditions:
+    //        - single is true if the matrix holds floats
+    // Post-conditions:
+    //        - If the directory holds a complete checkpoint for this input, its
+    //          merges have been read and its copy of the matrix has been made
+    //          the working matrix (resumed is the number of merges)
+    //        - Else resumed is -1, and if there was a checkpoint that cannot
+    //          be resumed, that has been reported
+    //        - Throws IOException if the checkpoint in the directory is of
+    //          some other input (whose fingerprint is the same by chance),
+    //          so that it is not overwritten
+    private void restore(boolean single) throws IOException {
+        this.resumed = -1;
+        File state = new File(this.dir, "checkpoint");
+        if (!state.isFile()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(state)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.err.println("Note: Ignoring checkpoint " + state + " written by another version");
+                return;
+            }
+            if (in.readInt() != this.n || in.readLong() != this.fingerprint) {
+                throw new IOException(state + " is a checkpoint of another input");
+            }
+            int copy = in.readInt();
+            File copyFile = new File(this.dir, "matrix." + copy);
+            if (copyFile.length() != FileDistanceMatrix.length(this.n, single)) {
+                System.err.println("Note: Ignoring checkpoint " + state + " whose matrix is incomplete");
+                return;
+            }
+            int merges = in.readInt();
+            for (int m = 0; m < merges; m++) {
+                this.space1[m] = in.readInt();
+                this.space2[m] = in.readInt();
+                this.shortDistance[m] = in.readDouble();
+            }
+            copyFile(copyFile, new File(this.dir, "matrix"));
+            this.merges = merges;
+            this.resumed = merges;
+            // the working matrix starts out the same as that copy (snapshot
+            // 0, before any change), and what the other copy holds is unknown
+            this.current = copy;
+            this.copyEpoch[copy] = 0;
+        } catch (EOFException e) {
+            System.err.println("Note: Ignoring checkpoint " + state + " that is incomplete");
+            return;
+        } finally {
+            in.close();
+        }
+        return;
+    }
+
+    // copyFile
+    // Pre-conditions:
+    //        - from is a readable file
+    // Post-conditions:
+    //        - to holds the same bytes as from
+    private static void copyFile(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                in.transferTo(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return;
+    }
+
+    // fingerprint
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns a hash of everything that determines the tree: the
+    //          species names and sequences, the column weights and the precision
+    private static long fingerprint(SitePatterns patterns, int[] weights, String precision) {
+        long hash = 0xcbf29ce484222325L;
+        for (Species species : patterns.getSpecies()) {
+            hash = mix(hash, species.getName().hashCode());
+            for (String symbol : species.getSequence()) {
+                hash = mix(hash, symbol.hashCode());
+            }
+            hash = mix(hash, -1);
+        }
+        for (int weight : weights) {
+            hash = mix(hash, weight);
+        }
+        return mix(hash, precision.hashCode());
+    }
+
+    // mix
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns hash with value folded in (FNV-1a over the int)
+    private static long mix(long hash, int value) {
+        for (int b = 0; b < 4; b++) {
+            hash = (hash ^ (value & 0xFF)) * 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * ChunkedFastaParser.java
+ *
+ * Parses a large (uncompressed) FASTA file on several threads
+ *
+ * The file is cut into chunks that each begin at a record header (a '>'
+ * at the start of a token), and the chunks are parsed concurrently. Each
+ * worker reads its chunk, packs the sequence characters of every record
+ * in place (dropping the whitespace), and turns them into Species. The
+ * chunks are then stitched back together in file order.
+ *
+ * The result is exactly what the sequential loop in
+ * PhyloTree.loadSpeciesFile produces, including its handling of a file
+ * that ends with a header and no sequence.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+public class ChunkedFastaParser {
+    public static final long CHUNK_BYTES = 32L << 20;     // Target size of a chunk
+    private static final int PROBE_BYTES = 1 << 16;       // Bytes read at a time when looking for a header
+
+    // The records found in one chunk
+    private static class Chunk {
+        private ArrayList<Species> species = new ArrayList<Species>();
+        private String lastHeader;      // Header token of the chunk's last record
+        private boolean lastEmpty;      // True if the chunk's last record has no sequence
+    }
+
+    // parse
+    // Pre-conditions:
+    //        - filename is the path of an uncompressed FASTA file
+    //        - threads is a positive number
+    // Post-conditions:
+    //        - Returns the species in the file, in file order
+    public static Species[] parse(String filename, int threads) throws IOException {
+        return parse(filename, threads, CHUNK_BYTES);
+    }
+
+    // parse
+    // Pre-conditions:
+    //        - filename is the path of an uncompressed FASTA file
+    //        - threads and chunkBytes are positive numbers
+    // Post-conditions:
+    //        - Returns the species in the file, in file order, having parsed
+    //          it in chunks of about chunkBytes bytes on threads threads
+    public static Species[] parse(String filename, int threads, long chunkBytes) throws IOException {
+        File file = new File(filename);
+        long[] bounds = boundaries(file, chunkBytes);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Chunk>> pending = new ArrayList<Future<Chunk>>();
+        for (int c = 0; c + 1 < bounds.length; c++) {
+            final long start = bounds[c];
+            final long end = bounds[c + 1];
+            final boolean first = (c == 0);
+            pending.add(workers.submit(() -> parseChunk(file, start, end, first)));
+        }
+        ArrayList<Species> species = new ArrayList<Species>();
+        Chunk last = null;
+        try {
+            for (Future<Chunk> next : pending) {
+                Chunk chunk = next.get();
+                species.addAll(chunk.species);
+                if (!chunk.species.isEmpty()) {
+                    last = chunk;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Unable to parse " + filename, e);
+        } finally {
+            workers.shutdown();
+        }
+
+        // the sequential loop never emits a final record without sequence;
+        // its header is appended to the sequence before it instead (and a
+        // file with a single token has no records at all)
+        if (last != null && last.lastEmpty) {
+            species.remove(species.size() - 1);
+            if (!species.isEmpty()) {
+                Species previous = species.remove(species.size() - 1);
+                StringBuilder sequence = new StringBuilder();
+                for (String symbol : previous.getSequence()) {
+                    sequence.append(symbol);
+                }
+                sequence.append(last.lastHeader);
+                species.add(new Species(previous.getName(), FastaReader.toSymbols(sequence)));
+            }
+        }
+        return species.toArray(new Species[species.size()]);
+    }
+
+    // boundaries
+    // Pre-conditions:
+    //        - file is a FASTA file
+    // Post-conditions:
+    //        - Returns increasing offsets, starting at 0 and ending at the file
+    //          length, where every offset in between is the start of a token
+    //          that begins with '>'
+    private static long[] boundaries(File file, long chunkBytes) throws IOException {
+        ArrayList<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            byte[] probe = new byte[PROBE_BYTES];
+            long target = chunkBytes;
+            while (target < length) {
+                long start = findHeader(in, Math.max(target, bounds.get(bounds.size() - 1) + 1), length, probe);
+                if (start >= length) {
+                    break;
+                }
+                bounds.add(start);
+                target = start + chunkBytes;
+            }
+            bounds.add(length);
+        } finally {
+            in.close();
+        }
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // findHeader
+    // Pre-conditions:
+    //        - 0 < from
+    // Post-conditions:
+    //        - Returns the first offset at or after from holding a '>' that
+    //          follows whitespace, or length if there is none
+    private static long findHeader(RandomAccessFile in, long from, long length, byte[] probe) throws IOException {
+        long position = from - 1;
+        while (position < length) {
+            int count = (int) Math.min(probe.length, length - position);
+            in.seek(position);
+            in.readFully(probe, 0, count);
+            for (int i = 1; i < count; i++) {
+                if (probe[i] == '>' && FastaReader.isWhitespace(probe[i - 1])) {
+                    return position + i;
+                }
+            }
+            // step back one byte so a boundary between probes is not missed
+            position += Math.max(1, count - 1);
+        }
+        return length;
+    }
+
+    // parseChunk
+    // Pre-conditions:
+    //        - [start, end) is a chunk of file from boundaries
+    //        - first is true for the chunk at the start of the file (whose
+    //          first token is a header whether or not it contains '>')
+    // Post-conditions:
+    //        - Returns the records of the chunk, each with its sequence
+    private static Chunk parseChunk(File file, long start, long end, boolean first) throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(start);
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+
+        Chunk chunk = new Chunk();
+        String header = null;
+        int packed = 0;            // sequence bytes are packed to the front of bytes
+        int sequenceStart = 0;
+        boolean ascii = true;
+        int position = 0;
+        while (position < bytes.length) {
+            while (position < bytes.length && FastaReader.isWhitespace(bytes[position])) {
+                position++;
+            }
+            if (position == bytes.length) {
+                break;
+            }
+            int tokenStart = position;
+            boolean isHeader = (header == null && first);
+            while (position < bytes.length && !FastaReader.isWhitespace(bytes[position])) {
+                if (bytes[position] == '>') {
+                    isHeader = true;
+                }
+                position++;
+            }
+            if (isHeader) {
+                if (header != null) {
+                    chunk.species.add(toSpecies(header, bytes, sequenceStart, packed - sequenceStart, ascii));
+                }
+                header = new String(bytes, tokenStart, position - tokenStart);
+                sequenceStart = packed;
+                ascii = true;
+            } else {
+                for (int i = tokenStart; i < position; i++) {
+                    ascii &= bytes[i] >= 0;
+                    bytes[packed++] = bytes[i];
+                }
+            }
+        }
+        if (header != null) {
+            chunk.species.add(toSpecies(header, bytes, sequenceStart, packed - sequenceStart, ascii));
+            chunk.lastHeader = header;
+            chunk.lastEmpty = (packed == sequenceStart);
+        }
+        return chunk;
+    }
+
+    // toSpecies
+    // Pre-conditions:
+    //        - header is a record's header token
+    //        - bytes[start, start + length) holds its packed sequence
+    //        - ascii is true if none of those bytes is above 127
+    // Post-conditions:
+    //        - Returns the species the sequential loader makes for the record
+    private static Species toSpecies(String header, byte[] bytes, int start, int length, boolean ascii) {
+        String[] nameArray = header.split("\\|");
+        String name = nameArray[nameArray.length - 1];
+        if (!ascii) {
+            return new Species(name, FastaReader.toSymbols(new String(bytes, start, length)));
+        }
+        if (length == 0) {
+            return new Species(name, FastaReader.toSymbols(""));
+        }
+        String[] sequence = new String[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = FastaReader.symbol((char) bytes[start + i]);
+        }
+        return new Species(name, sequence);
+    }
+}
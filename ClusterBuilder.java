@@ -0,0 +1,375 @@
+/*
+ * ClusterBuilder.java
+ *
+ * Runs the clustering loop behind PhyloTree.buildTree
+ *
+ * Every active cluster caches its nearest active neighbor and the distance
+ * to it. After a merge only the merged row and the rows whose nearest
+ * neighbor was one of the two merged clusters are rescanned; every other
+ * row just checks whether the new cluster is now closer. The rescans, the
+ * distance updates and the search for the closest pair are spread over a
+ * fork-join pool. The initial distances can instead be computed by
+ * separate worker processes (see DistanceWorkers).
+ *
+ * Pairs are ordered by distance, then by (smaller label, larger label),
+ * which is a total order, so the tree is the same for any number of threads.
+ *
+ * If options names a checkpoint directory, the state of the loop is saved
+ * there from time to time (see Checkpoint), and a builder whose directory
+ * holds a checkpoint of the same input replays the merges recorded in it
+ * and carries on from there, building exactly the same tree.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.io.*;
+
+public class ClusterBuilder {
+    private PhyloTreeNode[] forest;            // forest[i] is the cluster in slot i (null once merged away)
+    private DistanceMatrix distance;           // Distances between the clusters in each slot
+    private int[] nearest;                     // nearest[i] is the slot closest to slot i
+    private double[] nearestDistance;          // The distance from slot i to nearest[i]
+    private ForkJoinPool pool;                 // Workers for the parallel loops (null if single threaded)
+    private int grain;                         // Smallest range of slots handed to one task
+    private Checkpoint checkpoint;             // Saves the state of the loop (null if not checkpointing)
+    private int active;                        // Number of active clusters
+
+    // CONSTRUCTOR
+
+    // ClusterBuilder
+    // Pre-conditions:
+    //        - patterns holds the compressed alignment of the species to cluster
+    //        - options is non-null
+    // Post-conditions:
+    //        - There is one leaf per species, and the distances between every
+    //          pair of leaves have been computed
+    //        - If a checkpoint was resumed, the merges recorded in it have
+    //          been made instead
+    public ClusterBuilder(SitePatterns patterns, TreeOptions options) {
+        this(patterns, patterns.getWeights(), options);
+    }
+
+    // ClusterBuilder
+    // Pre-conditions:
+    //        - patterns holds the compressed alignment of the species to cluster
+    //        - weights has one entry per pattern (e.g. a bootstrap resample)
+    //        - options is non-null
+    // Post-conditions:
+    //        - Same as above, with the mismatches of each pattern counted
+    //          weights[p] times instead of patterns.getWeights()[p] times
+    public ClusterBuilder(SitePatterns patterns, int[] weights, TreeOptions options) {
+        Species[] species = patterns.getSpecies();
+        int n = species.length;
+        this.forest = new PhyloTreeNode[n];
+        if (options.getCheckpointDir() != null) {
+            this.checkpoint = new Checkpoint(patterns, weights, options);
+            this.distance = this.checkpoint.getMatrix();
+        } else {
+            this.distance = DistanceMatrix.create(patterns, options);
+        }
+        this.nearest = new int[n];
+        this.nearestDistance = new double[n];
+        this.grain = options.getGrain();
+        if (options.getThreads() > 1) {
+            this.pool = new ForkJoinPool(options.getThreads());
+        }
+        for (int i = 0; i < n; i++) {
+            this.forest[i] = new PhyloTreeNode(null, species[i]);
+        }
+        this.active = n;
+        if (this.checkpoint != null && this.checkpoint.getResumed() >= 0) {
+            // the matrix already holds the distances after these merges
+            for (int m = 0; m < this.checkpoint.getResumed(); m++) {
+                join(this.checkpoint.getSpace1(m), this.checkpoint.getSpace2(m), this.checkpoint.getShortDistance(m));
+            }
+            return;
+        }
+        if (options.getWorkers() > 0) {
+            DistanceWorkers.fill(patterns, weights, this.distance, options);
+            return;
+        }
+        forRange(1, n, i -> {
+            for (int j = 0; j < i; j++) {
+                this.distance.set(i, j, patterns.distance(j, i, patterns.mismatches(j, i, weights)));
+            }
+        });
+        return;
+    }
+
+    // build
+    // Pre-conditions:
+    //        - build has not been called before
+    // Post-conditions:
+    //        - The closest pair of clusters has been merged until one remained
+    //        - Returns the root of the resulting tree
+    //        - The distance matrix and worker pool have been released
+    public PhyloTreeNode build() {
+        int n = this.forest.length;
+        forRange(0, n, i -> {
+            if (this.forest[i] != null) {
+                rescan(i);
+            }
+        });
+        while (this.active > 1) {
+            int best = closest(0, n);
+            merge(Math.min(best, this.nearest[best]), Math.max(best, this.nearest[best]));
+            if (this.checkpoint != null && this.checkpoint.isDue()) {
+                this.checkpoint.save(activeSlots());
+            }
+        }
+        if (this.checkpoint != null) {
+            this.checkpoint.finish();
+        }
+        this.distance.close();
+        if (this.checkpoint != null) {
+            this.checkpoint.close();
+        }
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+        return this.forest[0];
+    }
+
+    // merge
+    // Pre-conditions:
+    //        - space1 < space2 are the slots of the closest pair of clusters
+    // Post-conditions:
+    //        - The two clusters have been replaced by their parent in space1
+    //        - The distances and nearest neighbors of the remaining clusters
+    //          have been brought up to date
+    private void merge(int space1, int space2) {
+        PhyloTreeNode node1 = this.forest[space1];
+        PhyloTreeNode node2 = this.forest[space2];
+        double shortDistance = this.distance.get(space1, space2);
+        double weight1 = ((double) node1.getNumLeafs()) / ((double) (node2.getNumLeafs()) + ((double) node1.getNumLeafs()));
+        double weight2 = ((double) node2.getNumLeafs()) / ((double) (node2.getNumLeafs()) + ((double) node1.getNumLeafs()));
+        join(space1, space2, shortDistance);
+        if (this.checkpoint != null) {
+            this.checkpoint.record(space1, space2, shortDistance);
+        }
+
+        // update the distances to the parent; rows that pointed at either
+        // child are marked (nearest = -1) for a full rescan
+        int n = this.forest.length;
+        forRange(0, n, k -> {
+            if (this.forest[k] == null || k == space1) {
+                return;
+            }
+            double d = weight1 * this.distance.get(space1, k) + weight2 * this.distance.get(space2, k);
+            this.distance.set(space1, k, d);
+            if (this.nearest[k] == space1 || this.nearest[k] == space2) {
+                this.nearest[k] = -1;
+            } else if (before(d, k, space1, this.nearestDistance[k], k, this.nearest[k])) {
+                this.nearest[k] = space1;
+                this.nearestDistance[k] = d;
+            }
+        });
+        this.nearest[space1] = -1;
+        forRange(0, n, k -> {
+            if (this.forest[k] != null && this.nearest[k] < 0) {
+                rescan(k);
+            }
+        });
+        return;
+    }
+
+    // join
+    // Pre-conditions:
+    //        - space1 < space2 are the slots of two active clusters at
+    //          distance shortDistance
+    // Post-conditions:
+    //        - The two clusters have been replaced by their parent in space1
+    //          (the distances are left alone)
+    private void join(int space1, int space2, double shortDistance) {
+        PhyloTreeNode node1 = this.forest[space1];
+        PhyloTreeNode node2 = this.forest[space2];
+        PhyloTreeNode parentNode;
+        if (node1.getLabel().compareTo(node2.getLabel()) <= 0) {
+            parentNode = new PhyloTreeNode(node1.getLabel() + "+" + node2.getLabel(), null, node1, node2, shortDistance / 2);
+        } else {
+            parentNode = new PhyloTreeNode(node2.getLabel() + "+" + node1.getLabel(), null, node2, node1, shortDistance / 2);
+        }
+        node1.setParent(parentNode);
+        node2.setParent(parentNode);
+        this.forest[space1] = parentNode;
+        this.forest[space2] = null;
+        this.active--;
+        return;
+    }
+
+    // activeSlots
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the slots of the active clusters, in order
+    private int[] activeSlots() {
+        int[] slots = new int[this.active];
+        int count = 0;
+        for (int k = 0; k < this.forest.length; k++) {
+            if (this.forest[k] != null) {
+                slots[count++] = k;
+            }
+        }
+        return slots;
+    }
+
+    // rescan
+    // Pre-conditions:
+    //        - slot holds an active cluster
+    // Post-conditions:
+    //        - nearest[slot] and nearestDistance[slot] describe the closest
+    //          other active cluster (nearest is -1 if there is none)
+    private void rescan(int slot) {
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int k = 0; k < this.forest.length; k++) {
+            if (k != slot && this.forest[k] != null) {
+                double d = this.distance.get(slot, k);
+                if (best < 0 || before(d, slot, k, bestDistance, slot, best)) {
+                    best = k;
+                    bestDistance = d;
+                }
+            }
+        }
+        this.nearest[slot] = best;
+        this.nearestDistance[slot] = bestDistance;
+        return;
+    }
+
+    // closest
+    // Pre-conditions:
+    //        - 0 <= from < to <= forest.length
+    // Post-conditions:
+    //        - Returns the slot in [from, to) whose (slot, nearest) pair comes
+    //          first, or -1 if no slot in the range has a neighbor
+    private int closest(int from, int to) {
+        if (this.pool == null || to - from <= this.grain) {
+            int best = -1;
+            for (int k = from; k < to; k++) {
+                best = closer(best, k);
+            }
+            return best;
+        }
+        return this.pool.invoke(new Closest(from, to));
+    }
+
+    // closer
+    // Pre-conditions:
+    //        - a and b are slots, or -1
+    // Post-conditions:
+    //        - Returns whichever of a and b has the nearer pair
+    //          (ignoring -1, inactive slots and slots without a neighbor)
+    private int closer(int a, int b) {
+        if (b < 0 || this.forest[b] == null || this.nearest[b] < 0) {
+            return a;
+        }
+        if (a < 0 || before(this.nearestDistance[b], b, this.nearest[b], this.nearestDistance[a], a, this.nearest[a])) {
+            return b;
+        }
+        return a;
+    }
+
+    // before
+    // Pre-conditions:
+    //        - {a1,b1} and {a2,b2} are pairs of active slots at distance d1 and d2
+    // Post-conditions:
+    //        - Returns true if pair {a1,b1} comes strictly before pair {a2,b2}:
+    //          it is closer, or equally close and its (smaller label, larger label)
+    //          sorts first
+    private boolean before(double d1, int a1, int b1, double d2, int a2, int b2) {
+        if (d1 != d2) {
+            return d1 < d2;
+        }
+        String first1 = this.forest[a1].getLabel();
+        String second1 = this.forest[b1].getLabel();
+        if (first1.compareTo(second1) > 0) {
+            first1 = this.forest[b1].getLabel();
+            second1 = this.forest[a1].getLabel();
+        }
+        String first2 = this.forest[a2].getLabel();
+        String second2 = this.forest[b2].getLabel();
+        if (first2.compareTo(second2) > 0) {
+            first2 = this.forest[b2].getLabel();
+            second2 = this.forest[a2].getLabel();
+        }
+        int order = first1.compareTo(first2);
+        if (order == 0) {
+            order = second1.compareTo(second2);
+        }
+        return order < 0;
+    }
+
+    // forRange
+    // Pre-conditions:
+    //        - body is safe to run concurrently for different indices
+    // Post-conditions:
+    //        - body has been run once for every index in [from, to)
+    private void forRange(int from, int to, IntConsumer body) {
+        if (this.pool == null || to - from <= this.grain) {
+            for (int i = from; i < to; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+        this.pool.invoke(new ForRange(from, to, this.grain, body));
+        return;
+    }
+
+    // Runs a loop body over a range of slots, splitting it in half until
+    // the pieces are small enough
+    private static class ForRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private int from;
+        private int to;
+        private int grain;
+        private IntConsumer body;
+
+        private ForRange(int from, int to, int grain, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        protected void compute() {
+            if (this.to - this.from <= this.grain) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.body.accept(i);
+                }
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new ForRange(this.from, middle, this.grain, this.body),
+                new ForRange(middle, this.to, this.grain, this.body));
+            return;
+        }
+    }
+
+    // Finds the slot with the nearest pair over a range of slots
+    private class Closest extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        private int from;
+        private int to;
+
+        private Closest(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Integer compute() {
+            if (this.to - this.from <= ClusterBuilder.this.grain) {
+                return closest(this.from, this.to);
+            }
+            int middle = (this.from + this.to) >>> 1;
+            Closest left = new Closest(this.from, middle);
+            left.fork();
+            int right = new Closest(middle, this.to).compute();
+            return closer(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * ClusterCut.java
+ *
+ * Defines an index for cutting a phylogenetic tree into flat clusters,
+ * either below a height threshold or into a given number of clusters
+ *
+ * The height of a node is its weighted height (see
+ * PhyloTree.weightedNodeHeight), and the clusters at threshold t are the
+ * highest nodes whose height is at most t: the nodes a walk down from the
+ * root stops at. Every non-terminal is given a cut height, the smallest
+ * height on its path from the root, so that it is cut (split into its two
+ * children) exactly when its cut height is above t. The non-terminals are
+ * sorted once by cut height, highest first, a node always coming before
+ * its descendants; cutting at t then means cutting a prefix of that order,
+ * and the clusters are the children of the prefix that are not in it.
+ * Asking for k clusters means cutting the first k - 1 non-terminals.
+ *
+ * Heights are computed in a single iterative pass, and each query takes
+ * time proportional to the number of clusters it returns (plus a binary
+ * search for a threshold).
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class ClusterCut {
+    private PhyloTreeNode root;                         // Root of the tree
+    private PhyloTreeNode[] order;                      // Non-terminals, in the order they are cut
+    private double[] cutHeight;                         // Cut height of order[r] (non-increasing)
+    private IdentityHashMap<PhyloTreeNode, Integer> rank;   // Position of each non-terminal in order
+
+    // CONSTRUCTOR
+
+    // ClusterCut
+    // Pre-conditions:
+    //        - root is the root of a built phylogenetic tree
+    // Post-conditions:
+    //        - The non-terminals of the tree have been sorted by cut height
+    public ClusterCut(PhyloTreeNode root) {
+        this.root = root;
+        int size = root.getNumLeafs() - 1;
+        this.order = new PhyloTreeNode[size];
+        this.cutHeight = new double[size];
+        this.rank = new IdentityHashMap<PhyloTreeNode, Integer>(2 * size);
+        if (size == 0) {
+            return;
+        }
+
+        // weighted heights, bottom-up (iterative post-order)
+        IdentityHashMap<PhyloTreeNode, Double> heights = new IdentityHashMap<PhyloTreeNode, Double>(4 * size);
+        ArrayDeque<PhyloTreeNode> stack = new ArrayDeque<PhyloTreeNode>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            PhyloTreeNode node = stack.peek();
+            if (node.isLeaf()) {
+                heights.put(stack.pop(), 0.0);
+            } else if (!heights.containsKey(node.getLeftChild())) {
+                stack.push(node.getRightChild());
+                stack.push(node.getLeftChild());
+            } else {
+                stack.pop();
+                double rightSide = node.getDistanceToChild() + heights.get(node.getRightChild());
+                double leftSide = node.getDistanceToChild() + heights.get(node.getLeftChild());
+                heights.put(node, Math.max(rightSide, leftSide));
+            }
+        }
+
+        // cut heights, top-down, numbering the non-terminals in pre-order
+        PhyloTreeNode[] nodes = new PhyloTreeNode[size];
+        int[] depth = new int[size];
+        Integer[] sorted = new Integer[size];
+        ArrayDeque<Integer> ids = new ArrayDeque<Integer>();
+        nodes[0] = root;
+        this.cutHeight[0] = heights.get(root);
+        ids.push(0);
+        int next = 1;
+        while (!ids.isEmpty()) {
+            int id = ids.pop();
+            sorted[id] = id;
+            PhyloTreeNode node = nodes[id];
+            PhyloTreeNode[] children = { node.getRightChild(), node.getLeftChild() };
+            for (PhyloTreeNode child : children) {
+                if (!child.isLeaf()) {
+                    nodes[next] = child;
+                    depth[next] = depth[id] + 1;
+                    this.cutHeight[next] = Math.min(this.cutHeight[id], heights.get(child));
+                    ids.push(next++);
+                }
+            }
+        }
+
+        // highest first; a parent ties with a child at most, and comes first
+        final double[] height = this.cutHeight.clone();
+        Arrays.sort(sorted, (a, b) -> {
+            if (height[a] != height[b]) {
+                return Double.compare(height[b], height[a]);
+            }
+            if (depth[a] != depth[b]) {
+                return depth[a] - depth[b];
+            }
+            return a - b;
+        });
+        for (int r = 0; r < size; r++) {
+            this.order[r] = nodes[sorted[r]];
+            this.cutHeight[r] = height[sorted[r]];
+            this.rank.put(this.order[r], r);
+        }
+        return;
+    }
+
+    // ACCESSORS
+
+    // count
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of clusters at threshold
+    public int count(double threshold) {
+        // the number of cut heights above threshold, by binary search
+        int low = 0;
+        int high = this.cutHeight.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.cutHeight[middle] > threshold) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low + 1;
+    }
+
+    // clusters
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the roots of the clusters at threshold, in the order
+    //          they were split off (see clusters(int))
+    public List<PhyloTreeNode> clusters(double threshold) {
+        return clusters(count(threshold));
+    }
+
+    // clusters
+    // Pre-conditions:
+    //        - k is a positive number
+    // Post-conditions:
+    //        - Returns the roots of the k clusters made by cutting the k - 1
+    //          highest non-terminals (every leaf if k is larger than the
+    //          number of leaves), in the order they were split off
+    public List<PhyloTreeNode> clusters(int k) {
+        int cuts = Math.min(k - 1, this.order.length);
+        ArrayList<PhyloTreeNode> roots = new ArrayList<PhyloTreeNode>(cuts + 1);
+        if (cuts <= 0) {
+            roots.add(this.root);
+            return roots;
+        }
+        for (int r = 0; r < cuts; r++) {
+            PhyloTreeNode left = this.order[r].getLeftChild();
+            PhyloTreeNode right = this.order[r].getRightChild();
+            if (left.isLeaf() || this.rank.get(left) >= cuts) {
+                roots.add(left);
+            }
+            if (right.isLeaf() || this.rank.get(right) >= cuts) {
+                roots.add(right);
+            }
+        }
+        return roots;
+    }
+
+    // sweep
+    // Pre-conditions:
+    //        - thresholds is non-null
+    // Post-conditions:
+    //        - Returns the clusters at each threshold, in the order given
+    // Notes:
+    //    - The thresholds are sorted and matched against the cut heights in
+    //      a single merge-like pass, instead of one binary search each
+    public List<List<PhyloTreeNode>> sweep(double[] thresholds) {
+        Integer[] sorted = new Integer[thresholds.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> Double.compare(thresholds[b], thresholds[a]));
+        int[] counts = new int[thresholds.length];
+        int cuts = 0;
+        for (int i : sorted) {
+            while (cuts < this.cutHeight.length && this.cutHeight[cuts] > thresholds[i]) {
+                cuts++;
+            }
+            counts[i] = cuts + 1;
+        }
+        ArrayList<List<PhyloTreeNode>> result = new ArrayList<List<PhyloTreeNode>>(thresholds.length);
+        for (int i = 0; i < thresholds.length; i++) {
+            result.add(clusters(counts[i]));
+        }
+        return result;
+    }
+}
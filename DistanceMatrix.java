@@ -0,0 +1,99 @@
+/*
+ * DistanceMatrix.java
+ *
+ * Defines the symmetric distance matrix used while clustering in buildTree
+ *
+ * Entries are addressed by cluster index rather than by label, and only
+ * the strictly lower triangle (i > j) is stored, row by row, so that
+ * the distances from cluster i to clusters 0..i-1 are contiguous.
+ * Offsets into the triangle are longs, so a matrix is not limited to
+ * Integer.MAX_VALUE entries.
+ *
+ * Distances can be kept as doubles, as floats (half the memory, but
+ * distances closer than float resolution become ties, which the label
+ * order in ClusterBuilder then decides), or as exact mismatch counts
+ * between species plus floats for merged clusters (see MismatchCountMatrix).
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public interface DistanceMatrix {
+
+    // size
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of rows (and columns) in the matrix
+    public int size();
+
+    // get
+    // Pre-conditions:
+    //        - i and j are distinct indices between 0 and size() - 1
+    // Post-conditions:
+    //        - Returns the distance stored for {i,j}
+    public double get(int i, int j);
+
+    // set
+    // Pre-conditions:
+    //        - i and j are distinct indices between 0 and size() - 1
+    // Post-conditions:
+    //        - {i,j} (and so {j,i}) now maps to distance
+    public void set(int i, int j, double distance);
+
+    // close
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Any resources held by the matrix (e.g. temporary files)
+    //          have been released; the matrix must not be used afterwards
+    public void close();
+
+    // offset
+    // Pre-conditions:
+    //        - i and j are distinct, non-negative indices
+    // Post-conditions:
+    //        - Returns the position of {i,j} in the row-major lower triangle
+    public static long offset(int i, int j) {
+        if (i < j) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        return ((long) i) * (i - 1) / 2 + j;
+    }
+
+    // create
+    // Pre-conditions:
+    //        - patterns holds the species to cluster
+    //        - options is non-null
+    // Post-conditions:
+    //        - Returns an n x n matrix (n species) with the precision chosen by
+    //          options, backed by the heap or by a temporary file, depending on
+    //          options (in AUTO mode, the file is used when the triangle would
+    //          not fit in options.getHeapBudget() bytes)
+    public static DistanceMatrix create(SitePatterns patterns, TreeOptions options) {
+        int n = patterns.getNumSpecies();
+        String precision = options.getPrecision();
+        boolean single = !precision.equals(TreeOptions.PRECISION_DOUBLE);
+        long bytes = offset(n, 0) * (single ? 4 : 8);
+        String mode = options.getMatrixMode();
+        DistanceMatrix matrix;
+        if (mode.equals(TreeOptions.MATRIX_FILE)
+                || (mode.equals(TreeOptions.MATRIX_AUTO) && bytes > options.getHeapBudget())) {
+            matrix = new FileDistanceMatrix(n, options.getTempDir(), options.getPageCacheBytes(), single);
+        } else if (single) {
+            matrix = new HeapFloatDistanceMatrix(n);
+        } else {
+            matrix = new HeapDistanceMatrix(n);
+        }
+        if (precision.equals(TreeOptions.PRECISION_COUNTS)) {
+            matrix = new MismatchCountMatrix(patterns, matrix);
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * DistanceWorkers.java
+ *
+ * Computes the pairwise distances of a large alignment on several local
+ * worker processes, each a separate JVM with its own heap
+ *
+ * The coordinator writes the compressed alignment (see SitePatterns.write)
+ * to a file that every worker reads. The workers write the distances
+ * into a shared file in the layout and precision of FileDistanceMatrix:
+ * for a file-backed matrix that file is the clustering matrix itself, so
+ * once the workers are done the coordinator clusters over it in place;
+ * for a heap matrix it is a temporary file that is then loaded. The
+ * triangle is cut into square tiles of TILE x TILE entries, and each
+ * worker is handed one tile at a time over its standard input ("bi bj"
+ * for the tile of row block bi and column block bj), writes it through
+ * its own FileDistanceMatrix on the shared file, and answers "done" on
+ * its standard output once the tile is on disk. A tile covers whole pages
+ * of the file, so no two workers ever write the same page.
+ *
+ * The workers compute every distance with the same expressions as the
+ * in-process loop in ClusterBuilder, and store it the same way (as a
+ * float, or as a mismatch count, see MismatchCountMatrix), so the matrix
+ * is bit-for-bit the same.
+ *
+ * usage (started by the coordinator, not by hand):
+ *
+ * java DistanceWorkers patternsFile distanceFile precision cacheBytes
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+public class DistanceWorkers {
+    private static final int TILE = 16 * FileDistanceMatrix.TILE;     // Rows (and columns) per tile
+
+    // fill
+    // Pre-conditions:
+    //        - patterns and weights are the input to a ClusterBuilder
+    //        - distance is an empty matrix of patterns.getNumSpecies() rows,
+    //          made for options (see DistanceMatrix.create)
+    //        - options.getWorkers() is positive
+    // Post-conditions:
+    //        - distance holds the distance between every pair of species,
+    //          computed by options.getWorkers() worker processes
+    //        - If a worker cannot be started or fails, an error is reported
+    //          and the program exits with status 1
+    public static void fill(SitePatterns patterns, int[] weights, DistanceMatrix distance, TreeOptions options) {
+        int n = patterns.getNumSpecies();
+        int blocks = (n + TILE - 1) / TILE;
+        boolean single = !options.getPrecision().equals(TreeOptions.PRECISION_DOUBLE);
+        DistanceMatrix store = distance;
+        if (store instanceof MismatchCountMatrix) {
+            store = ((MismatchCountMatrix) store).getCounts();
+        }
+        File patternsFile = null;
+        FileDistanceMatrix shared = null;
+        try {
+            patternsFile = File.createTempFile("phylotree", ".patterns", options.getTempDir());
+            patternsFile.deleteOnExit();
+            patterns.write(patternsFile, weights);
+            if (store instanceof FileDistanceMatrix) {
+                // the workers fill the clustering matrix in place
+                shared = (FileDistanceMatrix) store;
+            } else {
+                shared = new FileDistanceMatrix(n, options.getTempDir(), options.getPageCacheBytes(), single);
+            }
+
+            // the tiles of the triangle, handed out in order to whichever
+            // worker is free
+            final int[][] work = new int[blocks * (blocks + 1) / 2][];
+            int t = 0;
+            for (int bi = 0; bi < blocks; bi++) {
+                for (int bj = 0; bj <= bi; bj++) {
+                    work[t++] = new int[] { bi, bj };
+                }
+            }
+            final AtomicInteger next = new AtomicInteger();
+            int workers = Math.min(options.getWorkers(), work.length);
+            ExecutorService coordinators = Executors.newFixedThreadPool(workers);
+            ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+            for (int w = 0; w < workers; w++) {
+                final Process process = start(patternsFile, shared.getFile(), options);
+                pending.add(coordinators.submit(() -> {
+                    drive(process, work, next);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> task : pending) {
+                    task.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Error: Distance worker failed " + e);
+                System.exit(1);
+            } finally {
+                coordinators.shutdown();
+            }
+            if (shared != store) {
+                load(shared, store);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Unable to run distance workers " + e);
+            System.exit(1);
+        } finally {
+            if (patternsFile != null) {
+                patternsFile.delete();
+            }
+            if (shared != null && shared != store) {
+                shared.close();
+            }
+        }
+        return;
+    }
+
+    // start
+    // Pre-conditions:
+    //        - patternsFile and distanceFile have been created by fill
+    // Post-conditions:
+    //        - Returns a running worker process, using the same java and
+    //          class path as this one
+    private static Process start(File patternsFile, File distanceFile, TreeOptions options) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            "DistanceWorkers", patternsFile.getPath(), distanceFile.getPath(), options.getPrecision(),
+            Long.toString(options.getPageCacheBytes()));
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    // drive
+    // Pre-conditions:
+    //        - process is a running worker
+    // Post-conditions:
+    //        - The worker has computed tiles from work until none were left,
+    //          and has exited
+    //        - Throws IOException if the worker failed
+    private static void drive(Process process, int[][] work, AtomicInteger next) throws IOException, InterruptedException {
+        PrintStream toWorker = new PrintStream(new BufferedOutputStream(process.getOutputStream()), false);
+        BufferedReader fromWorker = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            int t;
+            while ((t = next.getAndIncrement()) < work.length) {
+                toWorker.println(work[t][0] + " " + work[t][1]);
+                toWorker.flush();
+                String answer = fromWorker.readLine();
+                if (!"done".equals(answer)) {
+                    throw new IOException("worker stopped at tile " + work[t][0] + " " + work[t][1]);
+                }
+            }
+        } finally {
+            toWorker.close();
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("worker exited with status " + process.exitValue());
+        }
+        return;
+    }
+
+    // load
+    // Pre-conditions:
+    //        - shared holds the complete triangle, as store would hold it
+    // Post-conditions:
+    //        - Every entry of the triangle has been stored in store
+    private static void load(FileDistanceMatrix shared, DistanceMatrix store) {
+        int n = store.size();
+        for (int i = 1; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                store.set(i, j, shared.get(i, j));
+            }
+        }
+        return;
+    }
+
+    // computeTile
+    // Pre-conditions:
+    //        - (bi, bj) is a tile of the triangle, bi >= bj
+    // Post-conditions:
+    //        - The distances of the tile have been stored in distance
+    private static void computeTile(SitePatterns patterns, int[] weights, DistanceMatrix distance, int bi, int bj) {
+        int n = patterns.getNumSpecies();
+        for (int i = bi * TILE; i < Math.min(n, (bi + 1) * TILE); i++) {
+            for (int j = bj * TILE; j < Math.min(i, (bj + 1) * TILE); j++) {
+                distance.set(i, j, patterns.distance(j, i, patterns.mismatches(j, i, weights)));
+            }
+        }
+        return;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Error: Wrong number of arguments.");
+            System.exit(2);
+        }
+        SitePatterns patterns = SitePatterns.read(new File(args[0]));
+        int[] weights = patterns.getWeights();
+        boolean single = !args[2].equals(TreeOptions.PRECISION_DOUBLE);
+        FileDistanceMatrix file = new FileDistanceMatrix(new File(args[1]), patterns.getNumSpecies(), Long.parseLong(args[3]), single);
+        DistanceMatrix distance = file;
+        if (args[2].equals(TreeOptions.PRECISION_COUNTS)) {
+            distance = new MismatchCountMatrix(patterns, file);
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] tile = line.trim().split("\\s+");
+            computeTile(patterns, weights, distance, Integer.parseInt(tile[0]), Integer.parseInt(tile[1]));
+            file.flush();
+            System.out.println("done");
+            System.out.flush();
+        }
+        // the file belongs to the coordinator, so it is left open, not closed
+        return;
+    }
+}
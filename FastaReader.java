@@ -0,0 +1,337 @@
+/*
+ * FastaReader.java
+ *
+ * Reads the whitespace-separated tokens of a FASTA file, the way
+ * java.util.Scanner's next() and hasNext() would, but working directly on
+ * bytes so that large files load quickly
+ *
+ * Files compressed with gzip (recognized by their magic number, not their
+ * name) are read transparently. Decompression runs on its own thread and
+ * hands fixed-size blocks of output to the parsing thread through a bounded
+ * queue, so the two overlap and no decompressed copy is written to disk.
+ *
+ * As with Scanner, a failure to read the input (a corrupt gzip file, say)
+ * ends the tokens early rather than being thrown from hasNext or next;
+ * ioException() tells whether that happened.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import java.io.*;
+
+public class FastaReader {
+    private static final int BLOCK_SIZE = 1 << 16;      // Bytes read (or decompressed) at a time
+    private static final int QUEUED_BLOCKS = 16;        // Decompressed blocks waiting to be parsed
+    private static final String[] SYMBOLS = new String[256];   // Shared one-character strings
+
+    static {
+        for (int c = 0; c < SYMBOLS.length; c++) {
+            SYMBOLS[c] = String.valueOf((char) c).intern();
+        }
+    }
+
+    private InputStream in;                      // Where the bytes come from
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int position;                        // Next unread byte in buffer
+    private int limit;                           // Number of valid bytes in buffer
+    private byte[] token = new byte[256];        // The token being read
+    private String peeked;                       // The next token, if hasNext has read it already
+    private IOException failure;                 // Why reading stopped early (null if it did not)
+
+    // CONSTRUCTOR
+
+    // FastaReader
+    // Pre-conditions:
+    //        - in is an open stream of (uncompressed) FASTA text
+    // Post-conditions:
+    //        - A reader positioned at the first token has been created
+    public FastaReader(InputStream in) {
+        this.in = in;
+        return;
+    }
+
+    // open
+    // Pre-conditions:
+    //        - filename is the path of a FASTA file, possibly gzip compressed
+    // Post-conditions:
+    //        - Returns a reader over the (decompressed) contents of the file
+    //        - Throws FileNotFoundException if the file cannot be opened, and
+    //          IOException if it cannot be read
+    public static FastaReader open(String filename) throws IOException {
+        File file = new File(filename);
+        if (isGzip(file)) {
+            return new FastaReader(new GzipPipe(new FileInputStream(file)));
+        }
+        return new FastaReader(new FileInputStream(file));
+    }
+
+    // isGzip
+    // Pre-conditions:
+    //        - file is the path of a file
+    // Post-conditions:
+    //        - Returns true if the file starts with the gzip magic number
+    public static boolean isGzip(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } finally {
+            in.close();
+        }
+    }
+
+    // hasNext
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if there is another token
+    public boolean hasNext() {
+        if (this.peeked == null) {
+            this.peeked = readToken();
+        }
+        return this.peeked != null;
+    }
+
+    // next
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the next token
+    //        - Throws NoSuchElementException if there are no more tokens
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String next = this.peeked;
+        this.peeked = null;
+        return next;
+    }
+
+    // ioException
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the exception that ended the tokens early, or null if
+    //          the input has been read without error so far
+    public IOException ioException() {
+        return this.failure;
+    }
+
+    // close
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The underlying stream has been closed
+    public void close() {
+        try {
+            this.in.close();
+        } catch (IOException e) {
+            System.err.println("Error: Unable to close input " + e);
+        }
+        return;
+    }
+
+    // toSymbols
+    // Pre-conditions:
+    //        - sequence is the text of a sequence
+    // Post-conditions:
+    //        - Returns the same array sequence.toString().split("") would,
+    //          one string per character, but sharing a single string object
+    //          per (8-bit) character instead of allocating one per element
+    public static String[] toSymbols(CharSequence sequence) {
+        if (sequence.length() == 0) {
+            return new String[] { "" };
+        }
+        String[] symbols = new String[sequence.length()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = symbol(sequence.charAt(i));
+        }
+        return symbols;
+    }
+
+    // symbol
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns a string holding just c (shared for 8-bit characters)
+    static String symbol(char c) {
+        if (c < SYMBOLS.length) {
+            return SYMBOLS[c];
+        }
+        return String.valueOf(c);
+    }
+
+    // isWhitespace
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if b is an ASCII character Scanner treats as a
+    //          delimiter (Character.isWhitespace)
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= 9 && b <= 13) || (b >= 28 && b <= 31);
+    }
+
+    // readToken
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the next run of non-whitespace bytes, decoded with the
+    //          default charset, or null at the end of the input
+    private String readToken() {
+        int length = 0;
+        while (true) {
+            if (this.position == this.limit && !fill()) {
+                break;
+            }
+            byte b = this.buffer[this.position];
+            if (isWhitespace(b)) {
+                this.position++;
+                if (length > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (length == this.token.length) {
+                this.token = Arrays.copyOf(this.token, 2 * length);
+            }
+            this.token[length++] = b;
+            this.position++;
+        }
+        if (length == 0) {
+            return null;
+        }
+        return new String(this.token, 0, length);
+    }
+
+    // fill
+    // Pre-conditions:
+    //        - All of buffer has been consumed
+    // Post-conditions:
+    //        - Returns false at the end of the input, else refills buffer
+    //        - If the input cannot be read, failure is set and returns false
+    private boolean fill() {
+        if (this.failure != null) {
+            return false;
+        }
+        try {
+            int count = this.in.read(this.buffer, 0, this.buffer.length);
+            while (count == 0) {
+                count = this.in.read(this.buffer, 0, this.buffer.length);
+            }
+            if (count < 0) {
+                return false;
+            }
+            this.position = 0;
+            this.limit = count;
+            return true;
+        } catch (IOException e) {
+            this.failure = e;
+            return false;
+        }
+    }
+
+    // An InputStream over the decompressed contents of a gzip file, where
+    // the decompression runs ahead on a separate thread
+    private static class GzipPipe extends InputStream {
+        private static final byte[] END = new byte[0];     // Marks the end of the data
+        private BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(QUEUED_BLOCKS);
+        private volatile IOException failure;              // Set if decompression failed
+        private Thread inflater;                           // Runs the decompression
+        private byte[] block = new byte[0];                // The block being read
+        private int position;                              // Next unread byte in block
+
+        private GzipPipe(InputStream compressed) {
+            this.inflater = new Thread(() -> inflate(compressed), "gzip-inflater");
+            this.inflater.setDaemon(true);
+            this.inflater.start();
+        }
+
+        // inflate
+        // Pre-conditions:
+        //        - compressed is an open gzip stream
+        // Post-conditions:
+        //        - Every decompressed block, then END, has been queued
+        //          (failure is set first if anything went wrong)
+        private void inflate(InputStream compressed) {
+            try {
+                GZIPInputStream in = new GZIPInputStream(compressed, BLOCK_SIZE);
+                try {
+                    while (true) {
+                        byte[] block = new byte[BLOCK_SIZE];
+                        int length = in.readNBytes(block, 0, BLOCK_SIZE);
+                        if (length == 0) {
+                            break;
+                        }
+                        this.blocks.put(length == BLOCK_SIZE ? block : Arrays.copyOf(block, length));
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                this.failure = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                this.blocks.put(END);
+            } catch (InterruptedException e) {
+                return;
+            }
+            return;
+        }
+
+        // nextBlock
+        // Pre-conditions:
+        //        - The current block has been consumed
+        // Post-conditions:
+        //        - Returns false at the end of the data, else moves to the next block
+        //        - Throws the decompression failure, if there was one
+        private boolean nextBlock() throws IOException {
+            if (this.block == END) {
+                return false;
+            }
+            try {
+                this.block = this.blocks.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            this.position = 0;
+            if (this.block == END) {
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+                return false;
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (this.position == this.block.length && !nextBlock()) {
+                return -1;
+            }
+            return this.block[this.position++] & 0xFF;
+        }
+
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (this.position == this.block.length && !nextBlock()) {
+                return -1;
+            }
+            int count = Math.min(length, this.block.length - this.position);
+            System.arraycopy(this.block, this.position, bytes, offset, count);
+            this.position += count;
+            return count;
+        }
+
+        public void close() {
+            this.inflater.interrupt();
+            return;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * FileDistanceMatrix.java
+ *
+ * A DistanceMatrix stored in a temporary file, for matrices too large
+ * to keep on the heap
+ *
+ * The lower triangle is cut into square tiles of TILE x TILE entries,
+ * and each tile is written to disk as one page of big-endian doubles (or
+ * floats, for a single-precision matrix), tile row by tile row. Pages are
+ * read back through a small least-recently-used cache, kept as the bytes
+ * of the file so that only the values used are decoded. Clustering reads
+ * a cluster's whole row, which is partly a row and partly a column of the
+ * triangle; with tiles either one is spread over only n / TILE pages,
+ * each of which also holds the neighboring rows and columns, instead of
+ * one page per entry down a column. Dirty pages are written back when
+ * they are evicted or on close.
+ *
+ * The cache is split into segments, each with its own lock and its own
+ * handle on the file, and consecutive tiles of a row fall in different
+ * segments, so that the parallel loops in ClusterBuilder do not all wait
+ * on a single lock.
+ *
+ * A consistent copy of the matrix can be taken while it is still being
+ * changed (see beginSnapshot): the pages that differ from the copy are
+ * copied by another thread, and a page that is about to be overwritten
+ * before its turn is copied first, so only the pages that changed since
+ * the copy was last brought up to date are ever written.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class FileDistanceMatrix implements DistanceMatrix {
+    static final int TILE = 32;                                 // Rows (and columns) per tile
+    private static final int PAGE_VALUES = TILE * TILE;         // Values per page (8 KiB of doubles)
+    private static final int SEGMENTS = 16;                     // Independently locked parts of the cache
+    private int n;                                 // Number of rows/columns
+    private boolean single;                        // True if values are stored as floats
+    private int width;                             // Bytes per value in the file
+    private int pageBytes;                         // Bytes per page in the file
+    private File file;                             // The backing temporary file
+    private Segment[] segments;                    // Page p is cached in segments[p % SEGMENTS]
+    private int epoch = 1;                         // Number of the current snapshot interval
+    private int[] modified;                        // Interval in which each page was last changed
+    private BitSet copying;                        // Pages still to be copied to the snapshot (null if none)
+    private RandomAccessFile target;               // The snapshot being brought up to date
+
+    // A resident page of the triangle
+    private static class Page {
+        private byte[] bytes;       // The page as stored in the file
+        private boolean dirty;
+    }
+
+    // A part of the page cache, used under its own lock
+    private class Segment {
+        private RandomAccessFile data;                 // Open handle on file
+        private LinkedHashMap<Long, Page> cache;       // Resident pages, least recently used first
+        private byte[] buffer;                         // Scratch space for copying pages
+
+        private Segment(final int maxPages) throws IOException {
+            this.data = new RandomAccessFile(FileDistanceMatrix.this.file, "rw");
+            this.buffer = new byte[FileDistanceMatrix.this.pageBytes];
+            this.cache = new LinkedHashMap<Long, Page>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+                    if (size() > maxPages) {
+                        writePage(Segment.this, eldest.getKey(), eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    // CONSTRUCTOR
+
+    // FileDistanceMatrix
+    // Pre-conditions:
+    //        - n is a positive number
+    //        - tempDir is a writable directory (or null for the system default)
+    //        - cacheBytes is the amount of heap to use for resident pages
+    // Post-conditions:
+    //        - An n x n matrix of zeros has been created in a new temporary file
+    //        - If the file cannot be created, an error is reported and the
+    //          program exits with status 1
+    public FileDistanceMatrix(int n, File tempDir, long cacheBytes) {
+        this(n, tempDir, cacheBytes, false);
+    }
+
+    // FileDistanceMatrix
+    // Pre-conditions:
+    //        - Same as above
+    // Post-conditions:
+    //        - Same as above, except that if single is true every value is
+    //          rounded to a float and the file takes half the space
+    public FileDistanceMatrix(int n, File tempDir, long cacheBytes, boolean single) {
+        this(n, null, tempDir, cacheBytes, single);
+    }
+
+    // FileDistanceMatrix
+    // Pre-conditions:
+    //        - Same as above, except that file names the file to use, which
+    //          is either missing or holds a matrix of the same size and precision
+    // Post-conditions:
+    //        - A matrix stored in file has been created, holding what file held
+    //          (zeros if it did not exist)
+    //        - The file is kept if the program ends before close is called
+    public FileDistanceMatrix(File file, int n, long cacheBytes, boolean single) {
+        this(n, file, null, cacheBytes, single);
+    }
+
+    // FileDistanceMatrix
+    // Pre-conditions:
+    //        - file is null for a new temporary file in tempDir
+    // Post-conditions:
+    //        - Initializes the matrix for the public constructors
+    private FileDistanceMatrix(int n, File file, File tempDir, long cacheBytes, boolean single) {
+        this.n = n;
+        this.single = single;
+        this.width = single ? 4 : 8;
+        this.pageBytes = PAGE_VALUES * this.width;
+        long maxPages = Math.max(2 * SEGMENTS, cacheBytes / this.pageBytes);
+        this.modified = new int[(int) (length(n, single) / this.pageBytes)];
+        this.segments = new Segment[SEGMENTS];
+        try {
+            if (file == null) {
+                this.file = File.createTempFile("phylotree", ".dist", tempDir);
+                this.file.deleteOnExit();
+            } else {
+                this.file = file;
+            }
+            for (int s = 0; s < SEGMENTS; s++) {
+                this.segments[s] = new Segment((int) Math.min(Integer.MAX_VALUE, maxPages / SEGMENTS));
+            }
+            this.segments[0].data.setLength(length(n, single));
+        } catch (IOException e) {
+            System.err.println("Error: Unable to create distance matrix file " + e);
+            System.exit(1);
+        }
+        return;
+    }
+
+    // getFile
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the file backing the matrix
+    public File getFile() {
+        return this.file;
+    }
+
+    public int size() {
+        return this.n;
+    }
+
+    public double get(int i, int j) {
+        long k = position(i, j);
+        Segment segment = this.segments[(int) ((k / PAGE_VALUES) % SEGMENTS)];
+        synchronized (segment) {
+            byte[] bytes = page(segment, k / PAGE_VALUES).bytes;
+            if (this.single) {
+                return Float.intBitsToFloat(readInt(bytes, (int) (k % PAGE_VALUES) * 4));
+            }
+            return Double.longBitsToDouble(readLong(bytes, (int) (k % PAGE_VALUES) * 8));
+        }
+    }
+
+    public void set(int i, int j, double distance) {
+        long k = position(i, j);
+        Segment segment = this.segments[(int) ((k / PAGE_VALUES) % SEGMENTS)];
+        synchronized (segment) {
+            Page page = page(segment, k / PAGE_VALUES);
+            if (this.single) {
+                writeInt(page.bytes, (int) (k % PAGE_VALUES) * 4, Float.floatToRawIntBits((float) distance));
+            } else {
+                writeLong(page.bytes, (int) (k % PAGE_VALUES) * 8, Double.doubleToRawLongBits(distance));
+            }
+            page.dirty = true;
+            this.modified[(int) (k / PAGE_VALUES)] = this.epoch;
+        }
+        return;
+    }
+
+    // position
+    // Pre-conditions:
+    //        - i and j are distinct, non-negative indices
+    // Post-conditions:
+    //        - Returns the position of {i,j} among the values in the file
+    static long position(int i, int j) {
+        if (i < j) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        long row = i / TILE;
+        long tile = row * (row + 1) / 2 + j / TILE;
+        return tile * PAGE_VALUES + (i % TILE) * TILE + j % TILE;
+    }
+
+    // length
+    // Pre-conditions:
+    //        - n is a positive number
+    // Post-conditions:
+    //        - Returns the size in bytes of the file of an n x n matrix
+    static long length(int n, boolean single) {
+        long rows = (n + TILE - 1) / TILE;
+        return rows * (rows + 1) / 2 * PAGE_VALUES * (single ? 4 : 8);
+    }
+
+    // flush
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Every dirty resident page has been written to the file
+    public void flush() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                for (Map.Entry<Long, Page> entry : segment.cache.entrySet()) {
+                    writePage(segment, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return;
+    }
+
+    // beginSnapshot
+    // Pre-conditions:
+    //        - target is open for writing and holds this matrix as it was
+    //          when the snapshot numbered since was taken (-1 if unknown)
+    //        - No other snapshot is in progress, and no get or set is
+    //          running on another thread
+    // Post-conditions:
+    //        - The current contents of the matrix are being captured in target;
+    //          copySnapshot must be called (typically on another thread) to
+    //          finish, and the matrix may be changed meanwhile
+    //        - Returns the number of this snapshot
+    public int beginSnapshot(RandomAccessFile target, int since) throws IOException {
+        flush();
+        BitSet copying = new BitSet(this.modified.length);
+        for (int p = 0; p < this.modified.length; p++) {
+            if (this.modified[p] > since) {
+                copying.set(p);
+            }
+        }
+        target.setLength(length(this.n, this.single));
+        synchronized (this) {
+            this.copying = copying;
+            this.target = target;
+        }
+        return this.epoch++;
+    }
+
+    // copySnapshot
+    // Pre-conditions:
+    //        - beginSnapshot has been called
+    // Post-conditions:
+    //        - target holds the matrix as it was when beginSnapshot was called
+    //          (it has not been synced to the disk)
+    public void copySnapshot() throws IOException {
+        try {
+            int p = 0;
+            while (true) {
+                synchronized (this) {
+                    p = this.copying.nextSetBit(p);
+                }
+                if (p < 0) {
+                    break;
+                }
+                // one page at a time, so set and get only wait for a single copy
+                Segment segment = this.segments[p % SEGMENTS];
+                synchronized (segment) {
+                    if (pending(p)) {
+                        copyPage(segment, p);
+                    }
+                }
+                p++;
+            }
+        } finally {
+            synchronized (this) {
+                this.copying = null;
+                this.target = null;
+            }
+        }
+        return;
+    }
+
+    public void close() {
+        try {
+            for (Segment segment : this.segments) {
+                synchronized (segment) {
+                    segment.cache.clear();
+                    segment.data.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Unable to close distance matrix file " + e);
+        }
+        this.file.delete();
+        return;
+    }
+
+    // page
+    // Pre-conditions:
+    //        - index is the number of a page within the triangle, cached in
+    //          segment, whose lock is held
+    // Post-conditions:
+    //        - Returns the page, reading it from the file if it is not resident
+    private Page page(Segment segment, long index) {
+        Page page = segment.cache.get(index);
+        if (page == null) {
+            page = new Page();
+            page.bytes = new byte[this.pageBytes];
+            try {
+                segment.data.seek(index * this.pageBytes);
+                segment.data.readFully(page.bytes);
+            } catch (IOException e) {
+                System.err.println("Error: Unable to read distance matrix file " + e);
+                System.exit(1);
+            }
+            segment.cache.put(index, page);
+        }
+        return page;
+    }
+
+    // writePage
+    // Pre-conditions:
+    //        - page is the resident copy of page number index, cached in
+    //          segment, whose lock is held
+    // Post-conditions:
+    //        - If the page was dirty, it has been written back to the file
+    private void writePage(Segment segment, long index, Page page) {
+        if (!page.dirty) {
+            return;
+        }
+        try {
+            if (pending((int) index)) {
+                copyPage(segment, (int) index);
+            }
+            segment.data.seek(index * this.pageBytes);
+            segment.data.write(page.bytes);
+            page.dirty = false;
+        } catch (IOException e) {
+            System.err.println("Error: Unable to write distance matrix file " + e);
+            System.exit(1);
+        }
+        return;
+    }
+
+    // pending
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if page index still has to be copied to the snapshot
+    private synchronized boolean pending(int index) {
+        return this.copying != null && this.copying.get(index);
+    }
+
+    // copyPage
+    // Pre-conditions:
+    //        - A snapshot is in progress and page index, cached in segment
+    //          (whose lock is held), has not been copied yet
+    // Post-conditions:
+    //        - The page, as stored in the file, has been copied to the snapshot
+    private void copyPage(Segment segment, int index) throws IOException {
+        long start = ((long) index) * this.pageBytes;
+        segment.data.seek(start);
+        segment.data.readFully(segment.buffer, 0, this.pageBytes);
+        synchronized (this) {
+            this.target.seek(start);
+            this.target.write(segment.buffer, 0, this.pageBytes);
+            this.copying.clear(index);
+        }
+        return;
+    }
+
+    // readLong
+    // Pre-conditions:
+    //        - bytes holds at least 8 bytes from position start
+    // Post-conditions:
+    //        - Returns the big-endian long stored at start
+    static long readLong(byte[] bytes, int start) {
+        long value = 0;
+        for (int b = 0; b < 8; b++) {
+            value = (value << 8) | (bytes[start + b] & 0xFF);
+        }
+        return value;
+    }
+
+    // readInt
+    // Pre-conditions:
+    //        - bytes holds at least 4 bytes from position start
+    // Post-conditions:
+    //        - Returns the big-endian int stored at start
+    static int readInt(byte[] bytes, int start) {
+        int value = 0;
+        for (int b = 0; b < 4; b++) {
+            value = (value << 8) | (bytes[start + b] & 0xFF);
+        }
+        return value;
+    }
+
+    // writeLong
+    // Pre-conditions:
+    //        - bytes has room for 8 bytes from position start
+    // Post-conditions:
+    //        - value has been stored big-endian at start
+    static void writeLong(byte[] bytes, int start, long value) {
+        for (int b = 7; b >= 0; b--) {
+            bytes[start + b] = (byte) value;
+            value >>>= 8;
+        }
+        return;
+    }
+
+    // writeInt
+    // Pre-conditions:
+    //        - bytes has room for 4 bytes from position start
+    // Post-conditions:
+    //        - value has been stored big-endian at start
+    static void writeInt(byte[] bytes, int start, int value) {
+        for (int b = 3; b >= 0; b--) {
+            bytes[start + b] = (byte) value;
+            value >>>= 8;
+        }
+        return;
+    }
+}
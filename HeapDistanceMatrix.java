@@ -0,0 +1,62 @@
+/*
+ * HeapDistanceMatrix.java
+ *
+ * A DistanceMatrix held in memory, as the condensed lower triangle of
+ * primitive doubles
+ *
+ * The triangle is split into fixed-size segments so that matrices with
+ * more than Integer.MAX_VALUE entries can still be addressed.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class HeapDistanceMatrix implements DistanceMatrix {
+    private static final int SEGMENT_BITS = 27;                 // 2^27 doubles (1 GiB) per segment
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private int n;                 // Number of rows/columns
+    private double[][] segments;   // The lower triangle, split into segments
+
+    // CONSTRUCTOR
+
+    // HeapDistanceMatrix
+    // Pre-conditions:
+    //        - n is a positive number
+    // Post-conditions:
+    //        - An n x n matrix of zeros has been created
+    public HeapDistanceMatrix(int n) {
+        this.n = n;
+        long entries = DistanceMatrix.offset(n, 0);
+        int numSegments = (int) ((entries + SEGMENT_MASK) >>> SEGMENT_BITS);
+        this.segments = new double[numSegments][];
+        for (int s = 0; s < numSegments; s++) {
+            long remaining = entries - (((long) s) << SEGMENT_BITS);
+            this.segments[s] = new double[(int) Math.min(remaining, 1L << SEGMENT_BITS)];
+        }
+        return;
+    }
+
+    public int size() {
+        return this.n;
+    }
+
+    public double get(int i, int j) {
+        long k = DistanceMatrix.offset(i, j);
+        return this.segments[(int) (k >>> SEGMENT_BITS)][(int) (k & SEGMENT_MASK)];
+    }
+
+    public void set(int i, int j, double distance) {
+        long k = DistanceMatrix.offset(i, j);
+        this.segments[(int) (k >>> SEGMENT_BITS)][(int) (k & SEGMENT_MASK)] = distance;
+        return;
+    }
+
+    public void close() {
+        this.segments = null;
+        return;
+    }
+}
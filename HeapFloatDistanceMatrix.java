@@ -0,0 +1,62 @@
+/*
+ * HeapFloatDistanceMatrix.java
+ *
+ * A DistanceMatrix held in memory, as the condensed lower triangle of
+ * primitive floats
+ *
+ * It takes half the memory of a HeapDistanceMatrix, but every distance is
+ * rounded to the nearest float when it is stored.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class HeapFloatDistanceMatrix implements DistanceMatrix {
+    private static final int SEGMENT_BITS = 28;                 // 2^28 floats (1 GiB) per segment
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private int n;                 // Number of rows/columns
+    private float[][] segments;    // The lower triangle, split into segments
+
+    // CONSTRUCTOR
+
+    // HeapFloatDistanceMatrix
+    // Pre-conditions:
+    //        - n is a positive number
+    // Post-conditions:
+    //        - An n x n matrix of zeros has been created
+    public HeapFloatDistanceMatrix(int n) {
+        this.n = n;
+        long entries = DistanceMatrix.offset(n, 0);
+        int numSegments = (int) ((entries + SEGMENT_MASK) >>> SEGMENT_BITS);
+        this.segments = new float[numSegments][];
+        for (int s = 0; s < numSegments; s++) {
+            long remaining = entries - (((long) s) << SEGMENT_BITS);
+            this.segments[s] = new float[(int) Math.min(remaining, 1L << SEGMENT_BITS)];
+        }
+        return;
+    }
+
+    public int size() {
+        return this.n;
+    }
+
+    public double get(int i, int j) {
+        long k = DistanceMatrix.offset(i, j);
+        return this.segments[(int) (k >>> SEGMENT_BITS)][(int) (k & SEGMENT_MASK)];
+    }
+
+    public void set(int i, int j, double distance) {
+        long k = DistanceMatrix.offset(i, j);
+        this.segments[(int) (k >>> SEGMENT_BITS)][(int) (k & SEGMENT_MASK)] = (float) distance;
+        return;
+    }
+
+    public void close() {
+        this.segments = null;
+        return;
+    }
+}
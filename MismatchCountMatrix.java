@@ -0,0 +1,87 @@
+/*
+ * MismatchCountMatrix.java
+ *
+ * A DistanceMatrix that stores the distance between two species as their
+ * exact mismatch count, and every other distance as a float
+ *
+ * The distance between two species is always numDiffs / length plus the
+ * salt term of their names, so the count alone is enough to rebuild it
+ * bit for bit. Only the averages made for merged clusters lose precision.
+ *
+ * Entries live in a single-precision matrix. Real distances lie between
+ * -1 and 2 (or are infinite), so a count c is stored as the float
+ * COUNT_BASE + c, which is exact for counts below 2^24 - COUNT_BASE and
+ * cannot be mistaken for a distance. Which entries hold counts is
+ * therefore decided by the value itself: an entry set while both slots
+ * still held species keeps its count until the slot is overwritten with
+ * the distance to a merged cluster.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class MismatchCountMatrix implements DistanceMatrix {
+    private static final double COUNT_BASE = 4.0;                   // Stored value of a zero count
+    private static final int MAX_COUNT = (1 << 24) - 5;             // Largest count a float holds exactly
+    private SitePatterns patterns;     // The species of each (original) slot
+    private DistanceMatrix counts;     // The single-precision matrix holding the entries
+
+    // CONSTRUCTOR
+
+    // MismatchCountMatrix
+    // Pre-conditions:
+    //        - patterns holds the species whose distances will be stored,
+    //          slot i holding species i until it is merged
+    //        - counts is an empty single-precision matrix of the same size
+    // Post-conditions:
+    //        - A matrix storing its entries in counts has been created
+    public MismatchCountMatrix(SitePatterns patterns, DistanceMatrix counts) {
+        this.patterns = patterns;
+        this.counts = counts;
+        return;
+    }
+
+    // getCounts
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the single-precision matrix holding the entries
+    DistanceMatrix getCounts() {
+        return this.counts;
+    }
+
+    public int size() {
+        return this.counts.size();
+    }
+
+    public double get(int i, int j) {
+        double stored = this.counts.get(i, j);
+        if (stored >= COUNT_BASE && stored != Double.POSITIVE_INFINITY) {
+            return this.patterns.distance(j, i, (int) (stored - COUNT_BASE));
+        }
+        return stored;
+    }
+
+    public void set(int i, int j, double distance) {
+        // a distance between species i and j has an exact count behind it
+        double difference = (distance - this.patterns.distance(j, i, 0)) * this.patterns.getLength();
+        if (difference >= 0 && difference <= MAX_COUNT) {
+            int count = (int) Math.round(difference);
+            if (this.patterns.distance(j, i, count) == distance) {
+                this.counts.set(i, j, COUNT_BASE + count);
+                return;
+            }
+        }
+        this.counts.set(i, j, distance);
+        return;
+    }
+
+    public void close() {
+        this.counts.close();
+        return;
+    }
+}
@@ -20,6 +20,7 @@
 
 import java.lang.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 public class PhyloTree {
@@ -27,7 +28,13 @@ public class PhyloTree {
     private int printingDepth;            // How many spaces to indent the deepest 
     // node when printing
     private int numSpecies = 0;
-    private static ArrayList<Species> descendents = new ArrayList<Species>();
+    private ArrayList<Species> species;               // All species, in the order they were loaded
+    private ArrayList<Species> leafOrder;             // All species, in DFS (left to right) leaf order
+    private IdentityHashMap<PhyloTreeNode, Integer> leafStart;   // Index in leafOrder of each node's first leaf
+    private HashMap<PhyloTreeNode, Double> support;   // Bootstrap support of each non-terminal (null if not computed)
+    private Splits splits;                            // Clades of the tree, computed on first use
+    private ClusterCut cut;                           // Flat-cluster index, computed on first use
+    private TreeIndex index;                          // Label/ancestor/distance index over the built tree
 
 
     // CONSTRUCTOR
@@ -49,25 +56,63 @@ public class PhyloTree {
     //          and exit with status (return code) 1
     //    - Most of this should be accomplished by calls to loadSpeciesFile and buildTree
     public PhyloTree(String speciesFile, int printingDepth) {
-        Scanner input;
-        try {
-            input = new Scanner(new File(speciesFile));
-            this.numSpecies = 0;
-            while (input.hasNext()) {
-                if (input.next().contains(">")) {
-                    numSpecies++;
-                }
-            }
-            Species[] tree = loadSpeciesFile(speciesFile);
-            buildTree(tree);
-            descendents = new ArrayList<Species>(Arrays.asList(tree));
-        } catch (FileNotFoundException e) {
-            System.out.println("Error unable to open file " + speciesFile);
-            System.exit(1);
+        this(speciesFile, printingDepth, new TreeOptions());
+    }
+
+    // PhyloTree
+    // Pre-conditions:
+    //        - speciesFile contains the path of a valid FASTA input file
+    //        - printingDepth is a positive number
+    //        - options is non-null
+    // Post-conditions:
+    //        - Same as above, with the tree built according to options
+    //          (the options never change the resulting tree)
+    //        - If options asks for bootstrap replicates, every non-terminal
+    //          other than the root has been given a support value
+    //        - If options names a checkpoint directory, the clustering is
+    //          checkpointed there, and resumed from the checkpoint it holds
+    //          for this input, if any
+    public PhyloTree(String speciesFile, int printingDepth, TreeOptions options) {
+        this(openSpeciesFile(speciesFile, options), printingDepth, options);
+    }
+
+    // PhyloTree
+    // Pre-conditions:
+    //        - tree is a non-empty array of species whose sequences have
+    //          already been aligned
+    //        - printingDepth is a positive number
+    //        - options is non-null
+    // Post-conditions:
+    //        - Same as above, for the species already loaded in tree
+    public PhyloTree(Species[] tree, int printingDepth, TreeOptions options) {
+        this.numSpecies = tree.length;
+        SitePatterns patterns = new SitePatterns(tree);
+        buildTree(patterns, options);
+        if (options.getReplicates() > 0) {
+            this.support = new Bootstrap(patterns, options).support(this.overallRoot);
         }
+        this.species = new ArrayList<Species>(Arrays.asList(tree));
+        layoutLeaves();
+        this.index = new TreeIndex(this.overallRoot);
         this.printingDepth = printingDepth;
         return;
     }
+
+    // openSpeciesFile
+    // Pre-conditions:
+    //        - options is non-null
+    // Post-conditions:
+    //        - Returns the species in speciesFile (see loadSpeciesFile)
+    //        - If the file does not exist, an error is reported and the
+    //          program exits with status 1
+    private static Species[] openSpeciesFile(String speciesFile, TreeOptions options) {
+        if (!new File(speciesFile).isFile()) {
+            System.out.println("Error unable to open file " + speciesFile);
+            System.exit(1);
+        }
+        return loadSpeciesFile(speciesFile, options.getThreads());
+    }
+
     // ACCESSORS
 
     // getOverallRoot
@@ -90,7 +135,7 @@ public class PhyloTree {
     //    - Can be a simple wrapper around the following toString
     //    - Hint: StringBuilder is much faster than repeated concatenation
     public String toString() {
-        return toString(this.getOverallRoot(), this.getWeightedHeight(), this.getWeightedHeight());
+        return toString(this.getOverallRoot(), 0.0, this.getWeightedHeight());
     }
 
     // toString 
@@ -107,7 +152,7 @@ public class PhyloTree {
         StringBuilder concat = new StringBuilder();
         String empty = "";
         if (node != null) {
-            int k = (int) (this.printingDepth * (weightedDepth / maxDepth));
+            int k = (int) Math.round(this.printingDepth * (weightedDepth / maxDepth));
             if (!node.isLeaf()) {
                 concat.append(toString(node.getRightChild(), weightedNodeDepth(node.getRightChild()), maxDepth));
                 for (int i = 0; i < k; i++) {
@@ -139,6 +184,20 @@ public class PhyloTree {
         }
     }
 
+    // getSupport
+    // Pre-conditions:
+    //    - node is a non-terminal of this tree
+    // Post-conditions:
+    //    - If bootstrap support was computed: returns the fraction of
+    //      replicate trees that contain the clade below node
+    //    - Else: returns NaN
+    public double getSupport(PhyloTreeNode node) {
+        if (this.support == null || !this.support.containsKey(node)) {
+            return Double.NaN;
+        }
+        return this.support.get(node);
+    }
+
     // toTreeString 
     // Pre-conditions:
     //    - None
@@ -158,6 +217,8 @@ public class PhyloTree {
     //    - Returns a string representation in tree format
     // Notes:
     //    - See assignment description for proper format
+    //    - If bootstrap support was computed, it is written as a whole
+    //      percentage after the closing parenthesis of each non-terminal
     private String toTreeString(PhyloTreeNode node) {
         StringBuilder concat = new StringBuilder();
         String extra = "";
@@ -172,8 +233,12 @@ public class PhyloTree {
             if (node == this.getOverallRoot()) {
                 concat.append(")");
             } else {
-                extra = String.format("%.5f", node.getDistanceToChild());
-                concat.append("):" + extra);
+                extra = String.format("%.5f", node.getParent().getDistanceToChild());
+                concat.append(")");
+                if (this.support != null) {
+                    concat.append(Math.round(100 * getSupport(node)));
+                }
+                concat.append(":" + extra);
             }
         }
         return concat.toString();
@@ -223,10 +288,48 @@ public class PhyloTree {
     //    - Returns an ArrayList containing all species in the tree
     // Notes:
     //    - Non-terminals do not represent species
-    // Hint:
-    //    - Call getAllDescendantSpecies
+    //    - The species are in the order they appear in the input file
     public java.util.ArrayList<Species> getAllSpecies() {
-        return this.descendents;
+        return this.species;
+    }
+
+    // getDescendantSpecies
+    // Pre-conditions:
+    //    - node is a node of this tree
+    // Post-conditions:
+    //    - Returns a read-only view of the species in the subtree rooted
+    //      at node, in left-to-right order
+    // Notes:
+    //    - Takes constant time; nothing is copied, and the size of the
+    //      view is node.getNumLeafs()
+    public List<Species> getDescendantSpecies(PhyloTreeNode node) {
+        int start = this.leafStart.get(node);
+        return Collections.unmodifiableList(this.leafOrder.subList(start, start + node.getNumLeafs()));
+    }
+
+    // getDescendantSpecies
+    // Pre-conditions:
+    //    - label is the label of a tree node
+    // Post-conditions:
+    //    - If not found: returns null
+    //    - Else: returns a read-only view of the species in the subtree
+    //      rooted at the node with that label
+    public List<Species> getDescendantSpecies(String label) {
+        PhyloTreeNode node = findTreeNodeByLabel(label);
+        if (node == null) {
+            return null;
+        }
+        return getDescendantSpecies(node);
+    }
+
+    // getLeafStart
+    // Pre-conditions:
+    //    - node is a node of this tree
+    // Post-conditions:
+    //    - Returns the start of the node's range [start, start + getNumLeafs())
+    //      of positions in the left-to-right leaf order
+    public int getLeafStart(PhyloTreeNode node) {
+        return this.leafStart.get(node);
     }
 
     // findTreeNodeByLabel
@@ -236,8 +339,10 @@ public class PhyloTree {
     // Post-conditions:
     //    - If found: returns the PhyloTreeNode with the specified label
     //    - If not found: returns null
+    // Notes:
+    //    - Answered from the tree's index in constant time
     public PhyloTreeNode findTreeNodeByLabel(String label) {
-        return findTreeNodeByLabel(this.getOverallRoot(), label);
+        return this.index.getNode(this.index.find(label));
     }
 
     // findLeastCommonAncestor
@@ -251,9 +356,14 @@ public class PhyloTree {
     //      is the only node in the tree where A is in the left tree
     //      and B is in the right tree (or vice-versa)
     // Notes:
-    //    - Can be a wrapper around the static findLeastCommonAncestor
+    //    - Answered from the tree's index, without searching for the labels
     public PhyloTreeNode findLeastCommonAncestor(String label1, String label2) {
-        return findLeastCommonAncestor(findTreeNodeByLabel(label1), findTreeNodeByLabel(label2));
+        int id1 = this.index.find(label1);
+        int id2 = this.index.find(label2);
+        if (id1 < 0 || id2 < 0) {
+            return null;
+        }
+        return this.index.getNode(this.index.leastCommonAncestor(id1, id2));
     }
 
     // findEvolutionaryDistance
@@ -264,30 +374,182 @@ public class PhyloTree {
     //    - If both nodes can be found: returns the sum of the weights 
     //      along the paths from their least common ancestor to each of
     //      the two nodes
+    // Notes:
+    //    - Answered from the tree's index, without searching for the labels
+    //      or recomputing depths
     public double findEvolutionaryDistance(String label1, String label2) {
-        PhyloTreeNode node1 = findTreeNodeByLabel(label1);
-        PhyloTreeNode node2 = findTreeNodeByLabel(label2);
-        if (node1 == null || node2 == null) {
+        int id1 = this.index.find(label1);
+        int id2 = this.index.find(label2);
+        if (id1 < 0 || id2 < 0) {
             return Double.POSITIVE_INFINITY;
-        } else {
-            double sum = 0.0;
-            while (nodeDepth(node1) != nodeDepth(node2)) {
-                if (nodeDepth(node1) > nodeDepth(node2)) {
-                    node1 = node1.getParent();
-                    sum += node1.getDistanceToChild();
-                } else {
-                    node2 = node2.getParent();
-                    sum += node2.getDistanceToChild();
-                }
+        }
+        return this.index.evolutionaryDistance(id1, id2);
+    }
+
+    // nearestSpecies
+    // Pre-conditions:
+    //    - k is a non-negative number
+    // Post-conditions:
+    //    - If label is not the label of a species in the tree: returns null
+    //    - Else: returns the k species with the smallest evolutionary distance
+    //      to it (all the others, if there are fewer), nearest first, with
+    //      equally distant species in name order
+    // Notes:
+    //    - Only the subtrees that can hold one of them are searched (see
+    //      TreeIndex.nearest), instead of measuring the distance to every species
+    public List<Species> nearestSpecies(String label, int k) {
+        int id = this.index.find(label);
+        if (id < 0 || !this.index.getNode(id).isLeaf()) {
+            return null;
+        }
+        int[] leaves = this.index.nearest(id, k);
+        ArrayList<Species> nearest = new ArrayList<Species>(leaves.length);
+        for (int leaf : leaves) {
+            nearest.add(this.index.getNode(leaf).getSpecies());
+        }
+        return nearest;
+    }
+
+    // nearestSpecies
+    // Pre-conditions:
+    //    - labels is a non-null list of labels
+    //    - k is a non-negative number
+    //    - threads is a positive number
+    // Post-conditions:
+    //    - Returns nearestSpecies(label, k) for each label, in order,
+    //      computed on threads worker threads
+    public List<List<Species>> nearestSpecies(List<String> labels, int k, int threads) {
+        ArrayList<List<Species>> result = new ArrayList<List<Species>>(labels.size());
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<List<Species>>> pending = new ArrayList<Future<List<Species>>>();
+            for (String label : labels) {
+                pending.add(workers.submit(() -> nearestSpecies(label, k)));
             }
-            while (node2 != node1) {
-                node1 = node1.getParent();
-                sum += node1.getDistanceToChild();
-                node2 = node2.getParent();
-                sum += node2.getDistanceToChild();
+            for (Future<List<Species>> task : pending) {
+                result.add(task.get());
             }
-            return sum;
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error: Nearest species search failed " + e);
+            System.exit(1);
+        } finally {
+            workers.shutdown();
+        }
+        return result;
+    }
+
+    // getIndex
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns the read-only index over the tree, for callers that
+    //      run many queries (e.g. TreeServer)
+    public TreeIndex getIndex() {
+        return this.index;
+    }
+
+    // robinsonFoulds
+    // Pre-conditions:
+    //    - other is a non-null tree
+    // Post-conditions:
+    //    - If the trees are over different sets of species: returns -1
+    //    - Else: returns the Robinson-Foulds distance between the trees,
+    //      i.e. the number of clades that are in one tree but not the other
+    // Notes:
+    //    - Takes time linear in the size of the trees (see Splits)
+    public int robinsonFoulds(PhyloTree other) {
+        if (!this.getSplits().sameLeafs(other.getSplits())) {
+            return -1;
+        }
+        return this.getSplits().robinsonFoulds(other.getSplits());
+    }
+
+    // weightedRobinsonFoulds
+    // Pre-conditions:
+    //    - other is a non-null tree
+    // Post-conditions:
+    //    - If the trees are over different sets of species: returns POSITIVE_INFINITY
+    //    - Else: returns the weighted Robinson-Foulds distance, i.e. the sum over
+    //      every edge of either tree of the difference between its weights in
+    //      the two trees (0 where the edge is missing)
+    public double weightedRobinsonFoulds(PhyloTree other) {
+        if (!this.getSplits().sameLeafs(other.getSplits())) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return this.getSplits().weightedRobinsonFoulds(other.getSplits());
+    }
+
+    // getClustersBelow
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns the flat clusters at threshold: the species below each
+    //      of the highest nodes whose weighted height is at most threshold
+    //      (one cluster per leaf if there are none), as read-only views
+    // Notes:
+    //    - Takes time proportional to the number of clusters (see ClusterCut)
+    public List<List<Species>> getClustersBelow(double threshold) {
+        return toSpecies(this.getClusterCut().clusters(threshold));
+    }
+
+    // getClustersBelow
+    // Pre-conditions:
+    //    - thresholds is non-null
+    // Post-conditions:
+    //    - Returns the flat clusters at each threshold, in the order given
+    public List<List<List<Species>>> getClustersBelow(double[] thresholds) {
+        ArrayList<List<List<Species>>> result = new ArrayList<List<List<Species>>>(thresholds.length);
+        for (List<PhyloTreeNode> roots : this.getClusterCut().sweep(thresholds)) {
+            result.add(toSpecies(roots));
         }
+        return result;
+    }
+
+    // getClusters
+    // Pre-conditions:
+    //    - k is a positive number
+    // Post-conditions:
+    //    - Returns k flat clusters (or one per leaf, if there are fewer
+    //      leaves), made by splitting the k - 1 highest nodes
+    public List<List<Species>> getClusters(int k) {
+        return toSpecies(this.getClusterCut().clusters(k));
+    }
+
+    // toSpecies
+    // Pre-conditions:
+    //    - roots are nodes of this tree
+    // Post-conditions:
+    //    - Returns the species below each node, as read-only views
+    private List<List<Species>> toSpecies(List<PhyloTreeNode> roots) {
+        ArrayList<List<Species>> clusters = new ArrayList<List<Species>>(roots.size());
+        for (PhyloTreeNode root : roots) {
+            clusters.add(getDescendantSpecies(root));
+        }
+        return clusters;
+    }
+
+    // getClusterCut
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns the flat-cluster index of the tree, building it the first time
+    private synchronized ClusterCut getClusterCut() {
+        if (this.cut == null) {
+            this.cut = new ClusterCut(this.getOverallRoot());
+        }
+        return this.cut;
+    }
+
+    // getSplits
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns the clades of the tree, computing them the first time
+    private synchronized Splits getSplits() {
+        if (this.splits == null) {
+            this.splits = new Splits(this.getOverallRoot());
+        }
+        return this.splits;
     }
 
     // MODIFIER
@@ -307,71 +569,104 @@ public class PhyloTree {
     //    - Important hint: although the distances are defined recursively, you
     //      do NOT want to implement them recursively, as that would be very inefficient
 
-    //make a forest of leaves
-    //precompute and store all pairwise distances using species distance
-
-    private void buildTree(Species[] species) {
-        HashMap<String, PhyloTreeNode> forest = new HashMap<String, PhyloTreeNode>();
-        MultiKeyMap distance = new MultiKeyMap();
-        for (int i = 0; i < species.length; i++) {
-            PhyloTreeNode node = new PhyloTreeNode(null, species[i]);
-            forest.put(species[i].getName(), node);
+    //make a forest of leaves, one per slot of the distance matrix
+    //precompute and store all pairwise distances over the compressed site patterns
+    //(the same values species distance gives, with less work per pair)
+    //then repeatedly merge the closest pair; see ClusterBuilder for how the
+    //closest pair is tracked and how ties are broken
+    //(the reference engine does the same the slow way, see ReferenceBuilder)
+
+    private void buildTree(SitePatterns patterns, TreeOptions options) {
+        if (options.getEngine().equals(TreeOptions.ENGINE_REFERENCE)) {
+            this.overallRoot = new ReferenceBuilder(patterns.getSpecies(), options).build();
+            return;
         }
-        for (int i = 0; i < species.length; i++) {
-            for (int j = 0; j < species.length; j++) {
-                distance.put(species[i].getName(), species[j].getName(), Species.distance(species[i], species[j]));
+        this.overallRoot = new ClusterBuilder(patterns, options).build();
+        return;
+    }
+
+    // STATIC
+
+    // robinsonFouldsMatrix
+    // Pre-conditions:
+    //    - trees is a non-null list of trees
+    //    - threads is a positive number
+    // Post-conditions:
+    //    - Returns the matrix of robinsonFoulds between every pair of trees,
+    //      computed on threads worker threads
+    public static int[][] robinsonFouldsMatrix(List<PhyloTree> trees, int threads) {
+        double[][] distances = compareAll(trees, threads, false);
+        int[][] matrix = new int[trees.size()][trees.size()];
+        for (int i = 0; i < trees.size(); i++) {
+            for (int j = 0; j < trees.size(); j++) {
+                matrix[i][j] = (int) distances[i][j];
             }
         }
-        double shortDistance;
-        double distanceVar1 = 0.0;
-        double distanceVar2 = 0.0;
-        String space1 = "";
-        String space2 = "";
-        PhyloTreeNode node1 = null;
-        PhyloTreeNode node2 = null;
-        PhyloTreeNode parentNode = null;
-        String parentLabel = "";
-        while (forest.size() > 1) {
-            shortDistance = Double.MAX_VALUE;
-            for (Map.Entry<String, PhyloTreeNode> firstArg : forest.entrySet()) {
-                for (Map.Entry<String, PhyloTreeNode> secondArg : forest.entrySet()) {
-                    if (distance.get(firstArg.getKey(), secondArg.getKey()) != null) {
-                        if (distance.get(firstArg.getKey(), secondArg.getKey()) < shortDistance && !firstArg.getKey().equals(secondArg.getKey())) {
-                            shortDistance = distance.get(firstArg.getKey(), secondArg.getKey());
-                            space1 = firstArg.getKey();
-                            space2 = secondArg.getKey();
-                            node1 = firstArg.getValue();
-                            node2 = secondArg.getValue();
+        return matrix;
+    }
+
+    // weightedRobinsonFouldsMatrix
+    // Pre-conditions:
+    //    - trees is a non-null list of trees
+    //    - threads is a positive number
+    // Post-conditions:
+    //    - Returns the matrix of weightedRobinsonFoulds between every pair
+    //      of trees, computed on threads worker threads
+    public static double[][] weightedRobinsonFouldsMatrix(List<PhyloTree> trees, int threads) {
+        return compareAll(trees, threads, true);
+    }
+
+    // compareAll
+    // Pre-conditions:
+    //    - trees is a non-null list of trees
+    //    - threads is a positive number
+    // Post-conditions:
+    //    - Returns the (weighted if weighted is true) Robinson-Foulds distance
+    //      between every pair of trees
+    // Notes:
+    //    - The clades of each tree are computed once, in parallel, then each
+    //      row of the matrix is filled in by its own task
+    private static double[][] compareAll(List<PhyloTree> trees, int threads, boolean weighted) {
+        int n = trees.size();
+        double[][] matrix = new double[n][n];
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+            for (int i = 0; i < n; i++) {
+                final PhyloTree tree = trees.get(i);
+                pending.add(workers.submit(() -> tree.getSplits()));
+            }
+            for (Future<?> task : pending) {
+                task.get();
+            }
+            pending.clear();
+            for (int i = 0; i < n; i++) {
+                final int row = i;
+                pending.add(workers.submit(() -> {
+                    for (int j = row + 1; j < n; j++) {
+                        double d;
+                        if (weighted) {
+                            d = trees.get(row).weightedRobinsonFoulds(trees.get(j));
+                        } else {
+                            d = trees.get(row).robinsonFoulds(trees.get(j));
                         }
+                        matrix[row][j] = d;
+                        matrix[j][row] = d;
                     }
-                }
+                }));
             }
-            forest.remove(space1);
-            forest.remove(space2);
-            if (space1.compareTo(space2) <= 0) {
-                parentLabel = space1 + "+" + space2;
-                parentNode = new PhyloTreeNode(parentLabel, null, node1, node2, shortDistance / 2);
-            } else {
-                parentLabel = space2 + "+" + space1;
-                parentNode = new PhyloTreeNode(parentLabel, null, node2, node1, shortDistance / 2);
+            for (Future<?> task : pending) {
+                task.get();
             }
-            node1.setParent(parentNode);
-            node2.setParent(parentNode);
-            for (Map.Entry<String, PhyloTreeNode> thirdArg : forest.entrySet()) {
-                if (!thirdArg.getKey().equals(parentLabel)) {
-                    distanceVar1 = (((double) node1.getNumLeafs()) / ((double) (node2.getNumLeafs()) + ((double) node1.getNumLeafs()))) * distance.get(space1, thirdArg.getKey());
-                    distanceVar2 = (((double) node2.getNumLeafs()) / ((double) (node2.getNumLeafs()) + ((double) node1.getNumLeafs()))) * distance.get(space2, thirdArg.getKey());
-                    distance.put(parentLabel, thirdArg.getKey(), distanceVar1 + distanceVar2);
-                }
-            }
-            forest.put(parentLabel, parentNode);
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Error: Tree comparison failed " + e);
+            System.exit(1);
+        } finally {
+            workers.shutdown();
         }
-        this.overallRoot = parentNode;
-        return;
+        return matrix;
     }
 
-    // STATIC
-
     // nodeDepth
     // Pre-conditions:
     //    - node is null or the root of tree (possibly subtree)
@@ -445,111 +740,138 @@ public class PhyloTree {
     // Notes:
     //    - Species without names are skipped
     //    - See assignment description for details on the FASTA format
+    //    - gzip-compressed files are decompressed on the fly (see FastaReader)
     // Hints:
     //    - Because the bar character ("|") denotes OR, you need to escape it
     //      if you want to use it to split a string, i.e. you can use "\\|" 
     public static Species[] loadSpeciesFile(String filename) {
+        return loadSpeciesFile(filename, new TreeOptions().getThreads());
+    }
+
+    // loadSpeciesFile
+    // Pre-conditions:
+    //    - filename contains the path of a valid FASTA input file
+    //    - threads is a positive number
+    // Post-conditions:
+    //    - Same as above
+    //    - If the file cannot be read, an error is reported and the program
+    //      exits with status 1
+    // Notes:
+    //    - Uncompressed files larger than one chunk are parsed on threads
+    //      threads (see ChunkedFastaParser); the species are the same either way
+    public static Species[] loadSpeciesFile(String filename, int threads) {
+        try {
+            return readSpeciesFile(filename, threads);
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found: " + filename);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error: Unable to read " + filename + " " + e);
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // readSpeciesFile
+    // Pre-conditions:
+    //    - filename contains the path of a FASTA input file
+    //    - threads is a positive number
+    // Post-conditions:
+    //    - Same as loadSpeciesFile, but throws FileNotFoundException if the
+    //      file does not exist and IOException if it cannot be read (for
+    //      callers that must outlive a bad file, such as TreeServer)
+    public static Species[] readSpeciesFile(String filename, int threads) throws IOException {
+        File file = new File(filename);
+        if (threads > 1 && file.length() > ChunkedFastaParser.CHUNK_BYTES && !FastaReader.isGzip(file)) {
+            return ChunkedFastaParser.parse(filename, threads);
+        }
         ArrayList<Species> array = new ArrayList<Species>();
         String[] nameArray = new String[7];
         String line = "";
         String name = "";
-        String sequence = "";
+        StringBuilder sequence = new StringBuilder();
         int inputLines = 0;
 
+        FastaReader input = FastaReader.open(filename);
         try {
-            Scanner input = new Scanner(new File(filename));
-            line = input.next();
-            inputLines++;
+            if (input.hasNext()) {
+                line = input.next();
+                inputLines++;
+            }
             while (input.hasNext()) {
                 nameArray = line.split("\\|");
                 name = nameArray[nameArray.length - 1];
+                sequence.setLength(0);
                 line = input.next();
                 inputLines++;
                 while (!line.contains(">") && input.hasNext()) {
-                    sequence = sequence + line;
+                    sequence.append(line);
                     line = input.next();
                     inputLines++;
                 }
                 if (!input.hasNext()) {
-                    sequence = sequence + line;
+                    sequence.append(line);
                 }
-                String[] finalSequence = new String[sequence.length()];
-                finalSequence = sequence.split("");
+                String[] finalSequence = FastaReader.toSymbols(sequence);
                 array.add(new Species(name, finalSequence));
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found: " + filename);
-            System.exit(1);
+            if (input.ioException() != null) {
+                throw input.ioException();
+            }
+        } finally {
+            input.close();
         }
         Species[] specArray = array.toArray(new Species[array.size()]);
-        descendents = array;
-        String[] finalString = new String[specArray[5].getSequence().length];
-        finalString = specArray[5].getSequence();
         return specArray;
     }
 
-    // getAllDescendantSpecies
+    // layoutLeaves
     // Pre-conditions:
-    //    - node points to a node in a phylogenetic tree structure
-    //    - descendants is a non-null reference variable to an empty arraylist object
+    //    - The tree has been built
     // Post-conditions:
-    //    - descendants is populated with all species in the subtree rooted at node
-    //      in in-/pre-/post-order (they are equivalent here)
-    private static void getAllDescendantSpecies(PhyloTreeNode node, java.util.ArrayList<Species> descendants) {
-        for (int i = 0; i < descendents.size(); i++) {
-            findTreeNodeByLabel(descendents.get(i).getName());
+    //    - leafOrder holds the species in left-to-right order, and every node
+    //      knows where its leaves start in leafOrder (they are contiguous)
+    private void layoutLeaves() {
+        this.leafOrder = new ArrayList<Species>(this.getOverallRoot().getNumLeafs());
+        getAllDescendantSpecies(this.getOverallRoot(), this.leafOrder);
+        this.leafStart = new IdentityHashMap<PhyloTreeNode, Integer>();
+        ArrayDeque<PhyloTreeNode> stack = new ArrayDeque<PhyloTreeNode>();
+        this.leafStart.put(this.getOverallRoot(), 0);
+        stack.push(this.getOverallRoot());
+        while (!stack.isEmpty()) {
+            PhyloTreeNode node = stack.pop();
             if (!node.isLeaf()) {
-                descendents.remove(descendents.get(i));
+                int start = this.leafStart.get(node);
+                this.leafStart.put(node.getLeftChild(), start);
+                this.leafStart.put(node.getRightChild(), start + node.getLeftChild().getNumLeafs());
+                stack.push(node.getRightChild());
+                stack.push(node.getLeftChild());
             }
         }
+        return;
     }
 
-    // findTreeNodeByLabel
+    // getAllDescendantSpecies
     // Pre-conditions:
     //    - node points to a node in a phylogenetic tree structure
-    //    - label is the label of a tree node that you intend to locate
+    //    - descendants is a non-null reference variable to an empty arraylist object
     // Post-conditions:
-    //    - If no node with the label exists in the subtree, return null
-    //    - Else: return the PhyloTreeNode with the specified label 
+    //    - descendants is populated with all species in the subtree rooted at node
+    //      in in-/pre-/post-order (they are equivalent here)
     // Notes:
-    //    - Assumes labels are unique in the tree
-    private static PhyloTreeNode findTreeNodeByLabel(PhyloTreeNode node, String label) {
-        if (node.getLabel().equals(label)) {
-            return node;
-        }
-        if (node.isLeaf()) {
-            return null;
-        } else {
-            PhyloTreeNode right = findTreeNodeByLabel(node.getRightChild(), label);
-            PhyloTreeNode left = findTreeNodeByLabel(node.getLeftChild(), label);
-            if (left != null) {
-                return left;
-            } else {
-                return right;
-            }
-        }
-    }
-
-    // findLeastCommonAncestor
-    // Pre-conditions:
-    //    - node1 and node2 point to nodes in the phylogenetic tree
-    // Post-conditions:
-    //    - If node1 or node2 are null, return null
-    //    - Else: returns the PhyloTreeNode of their common ancestor 
-    //      with the largest depth
-    private static PhyloTreeNode findLeastCommonAncestor(PhyloTreeNode node1, PhyloTreeNode node2) {
-        if (node1 == null || node2 == null) {
-            return null;
-        } else {
-            if (nodeDepth(node1) > nodeDepth(node2)) {
-                return findLeastCommonAncestor(node1.getParent(), node2);
-            } else if (nodeDepth(node1) < nodeDepth(node2)) {
-                return findLeastCommonAncestor(node2.getParent(), node1);
-            } else if (node1 == node2) {
-                return node1;
+    //    - Uses an explicit stack, so very deep trees do not overflow the call stack
+    private static void getAllDescendantSpecies(PhyloTreeNode node, java.util.ArrayList<Species> descendants) {
+        ArrayDeque<PhyloTreeNode> stack = new ArrayDeque<PhyloTreeNode>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            PhyloTreeNode next = stack.pop();
+            if (next.isLeaf()) {
+                descendants.add(next.getSpecies());
             } else {
-                return findLeastCommonAncestor(node1.getParent(), node2.getParent());
+                stack.push(next.getRightChild());
+                stack.push(next.getLeftChild());
             }
         }
+        return;
     }
-}
\ No newline at end of file
+}
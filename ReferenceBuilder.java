@@ -0,0 +1,166 @@
+/*
+ * ReferenceBuilder.java
+ *
+ * A deliberately naive version of the clustering loop behind
+ * PhyloTree.buildTree, kept as the reference that ClusterBuilder (and
+ * every matrix, thread count and worker mode under it) is checked against
+ *
+ * Every distance between species comes straight from Species.distance
+ * over the full alignment, the distances between clusters are kept in a
+ * plain square array, and every step scans every pair of active clusters
+ * for the closest one. Nothing is compressed, cached or run in parallel,
+ * so it takes O(n^3) time and is only meant for checking (see
+ * RegressionCheck).
+ *
+ * It follows the rules ClusterBuilder documents: pairs are ordered by
+ * distance, then by (smaller label, larger label); the merged cluster
+ * keeps the slot of its first species; and its distance to each other
+ * cluster is the average of its children's, weighted by their number of
+ * leaves. A reduced precision rounds each stored distance the way the
+ * matrices do: float rounds every distance to a float, and counts keeps
+ * a distance exact when it is the distance for a whole number of
+ * mismatches between the species of the two slots (see
+ * MismatchCountMatrix), and rounds it to a float otherwise.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class ReferenceBuilder {
+    private static final int MAX_COUNT = (1 << 24) - 5;     // Largest count kept exactly in counts precision
+    private Species[] species;         // The species, slot i starting out with species i
+    private String precision;          // One of the TreeOptions.PRECISION_ constants
+    private PhyloTreeNode[] forest;    // forest[i] is the cluster in slot i (null once merged away)
+    private double[][] distance;       // distance[i][k] is the distance between slots i and k
+
+    // CONSTRUCTOR
+
+    // ReferenceBuilder
+    // Pre-conditions:
+    //        - species is a non-empty array of species whose sequences have
+    //          already been aligned
+    //        - options is non-null
+    // Post-conditions:
+    //        - There is one leaf per species, and the distances between every
+    //          pair of leaves have been computed
+    public ReferenceBuilder(Species[] species, TreeOptions options) {
+        int n = species.length;
+        this.species = species;
+        this.precision = options.getPrecision();
+        this.forest = new PhyloTreeNode[n];
+        this.distance = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            this.forest[i] = new PhyloTreeNode(null, species[i]);
+            for (int j = 0; j < i; j++) {
+                store(i, j, Species.distance(species[j], species[i]));
+            }
+        }
+        return;
+    }
+
+    // build
+    // Pre-conditions:
+    //        - build has not been called before
+    // Post-conditions:
+    //        - The closest pair of clusters has been merged until one remained
+    //        - Returns the root of the resulting tree
+    public PhyloTreeNode build() {
+        int n = this.forest.length;
+        for (int active = n; active > 1; active--) {
+            int best1 = -1;
+            int best2 = -1;
+            for (int a = 0; a < n; a++) {
+                for (int b = a + 1; b < n; b++) {
+                    if (this.forest[a] != null && this.forest[b] != null
+                            && (best1 < 0 || before(a, b, best1, best2))) {
+                        best1 = a;
+                        best2 = b;
+                    }
+                }
+            }
+            merge(best1, best2);
+        }
+        return this.forest[0];
+    }
+
+    // merge
+    // Pre-conditions:
+    //        - space1 < space2 are the slots of the closest pair of clusters
+    // Post-conditions:
+    //        - The two clusters have been replaced by their parent in space1,
+    //          and its distances to the other clusters have been stored
+    private void merge(int space1, int space2) {
+        PhyloTreeNode node1 = this.forest[space1];
+        PhyloTreeNode node2 = this.forest[space2];
+        double shortDistance = this.distance[space1][space2];
+        double weight1 = ((double) node1.getNumLeafs()) / ((double) (node2.getNumLeafs()) + ((double) node1.getNumLeafs()));
+        double weight2 = ((double) node2.getNumLeafs()) / ((double) (node2.getNumLeafs()) + ((double) node1.getNumLeafs()));
+        PhyloTreeNode parentNode;
+        if (node1.getLabel().compareTo(node2.getLabel()) <= 0) {
+            parentNode = new PhyloTreeNode(node1.getLabel() + "+" + node2.getLabel(), null, node1, node2, shortDistance / 2);
+        } else {
+            parentNode = new PhyloTreeNode(node2.getLabel() + "+" + node1.getLabel(), null, node2, node1, shortDistance / 2);
+        }
+        node1.setParent(parentNode);
+        node2.setParent(parentNode);
+        this.forest[space1] = parentNode;
+        this.forest[space2] = null;
+        for (int k = 0; k < this.forest.length; k++) {
+            if (this.forest[k] != null && k != space1) {
+                store(space1, k, weight1 * this.distance[space1][k] + weight2 * this.distance[space2][k]);
+            }
+        }
+        return;
+    }
+
+    // store
+    // Pre-conditions:
+    //        - i and k are distinct slots
+    // Post-conditions:
+    //        - d, rounded as the precision requires, is the distance
+    //          between slots i and k
+    private void store(int i, int k, double d) {
+        if (this.precision.equals(TreeOptions.PRECISION_FLOAT)) {
+            d = (float) d;
+        } else if (this.precision.equals(TreeOptions.PRECISION_COUNTS)) {
+            int length = this.species[0].getSequence().length;
+            double salt = 1.0 / (this.species[i].getName().hashCode() ^ this.species[k].getName().hashCode());
+            double difference = (d - salt) * length;
+            if (!(difference >= 0 && difference <= MAX_COUNT
+                    && ((double) Math.round(difference)) / length + salt == d)) {
+                d = (float) d;
+            }
+        }
+        this.distance[i][k] = d;
+        this.distance[k][i] = d;
+        return;
+    }
+
+    // before
+    // Pre-conditions:
+    //        - {a1,b1} and {a2,b2} are pairs of active slots
+    // Post-conditions:
+    //        - Returns true if pair {a1,b1} comes strictly before pair {a2,b2}:
+    //          it is closer, or equally close and its (smaller label, larger label)
+    //          sorts first
+    private boolean before(int a1, int b1, int a2, int b2) {
+        double d1 = this.distance[a1][b1];
+        double d2 = this.distance[a2][b2];
+        if (d1 != d2) {
+            return d1 < d2;
+        }
+        String[] pair1 = { this.forest[a1].getLabel(), this.forest[b1].getLabel() };
+        String[] pair2 = { this.forest[a2].getLabel(), this.forest[b2].getLabel() };
+        Arrays.sort(pair1);
+        Arrays.sort(pair2);
+        int order = pair1[0].compareTo(pair2[0]);
+        if (order == 0) {
+            order = pair1[1].compareTo(pair2[1]);
+        }
+        return order < 0;
+    }
+}
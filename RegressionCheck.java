@@ -0,0 +1,651 @@
+/*
+ * RegressionCheck.java
+ *
+ * A differential regression check for the optimized tree building code
+ *
+ * Every engine, loader and output mode must write exactly the same bytes
+ * as the reference engine, so that performance work cannot change results
+ * unnoticed. The check stops at the first difference and exits with
+ * status 1; if everything matches it exits with status 0.
+ *
+ *   1. The reference engine (see ReferenceBuilder: Species.distance and a
+ *      full closest-pair scan at every step) must reproduce
+ *      output/example_output.txt and the tree in output/example_output.
+ *   2. Every input is loaded by the sequential loader, the chunked
+ *      parallel parser (with small chunks, so that records straddle chunk
+ *      boundaries) and through gzip; all must give the same species.
+ *      TreeServer must answer a load of a missing file and of a corrupt
+ *      gzip file with an error, and keep answering the requests after it.
+ *   3. Program2 is run on prog2_data/plants.list, prog2_data/animals.list
+ *      and a synthetic alignment in every mode of the fast engine (thread
+ *      counts, heap and file matrices, a page cache too small for the
+ *      matrix, worker processes, checkpointing, and a build of the last
+ *      input that is killed once it has written a checkpoint and resumed
+ *      after some other input has been built), and its standard output
+ *      and every .tree and .distances file are compared byte for byte
+ *      with a reference engine run.
+ *   4. Bootstrap support from the fast engine on several threads is
+ *      compared the same way with the reference engine, which builds each
+ *      replicate from a real resampled alignment.
+ *
+ * The float and counts precisions round the stored distances, so they
+ * cannot match double precision. The reference engine applies the same
+ * rounding rule (see ReferenceBuilder), so each precision is checked
+ * against a reference run in that precision.
+ *
+ * The parallel loops only split ranges larger than phylotree.grain slots,
+ * so the threaded modes run with a small grain, and the synthetic
+ * alignment is larger than the default grain as well, so that the
+ * fork-join code runs on every input.
+ *
+ * Each mode runs Program2 unchanged in a separate JVM, selecting the mode
+ * with phylotree.* system properties (see TreeOptions).
+ *
+ * usage:
+ *
+ * java RegressionCheck [rootDir [numSpecies [length]]]
+ *
+ * where
+ *
+ *   rootDir       the directory holding prog2_data and output (default: .)
+ *   numSpecies    species in the synthetic alignment (default: 1500)
+ *   length        columns in the synthetic alignment (default: 600)
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.zip.*;
+import java.io.*;
+
+public class RegressionCheck {
+    private static final String[] PRECISIONS = {
+        TreeOptions.PRECISION_DOUBLE, TreeOptions.PRECISION_FLOAT, TreeOptions.PRECISION_COUNTS
+    };
+    private static final int SMALL_GRAIN = 16;             // Grain that makes small inputs run in parallel
+    private static final long SMALL_CACHE = 256L << 10;    // Page cache smaller than most matrices
+
+    private File root;         // Holds prog2_data and output
+    private File scratch;      // Temporary directory for inputs and outputs
+    private int runs;          // Number of Program2 runs so far
+
+    // CONSTRUCTOR
+
+    // RegressionCheck
+    // Pre-conditions:
+    //        - root holds prog2_data and output
+    // Post-conditions:
+    //        - A check with a new, empty scratch directory has been created
+    public RegressionCheck(File root) throws IOException {
+        this.root = root;
+        this.scratch = File.createTempFile("phylotree", ".check");
+        this.scratch.delete();
+        this.scratch.mkdirs();
+        return;
+    }
+
+    // checkExample
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The reference run reproduces the bundled example output
+    public void checkExample() throws IOException, InterruptedException {
+        File expected = new File(this.root, "output");
+        File input = find(new File(this.root, "prog2_data"), "MTH00107.ref.fasta");
+        if (input == null) {
+            fail("example input MTH00107.ref.fasta not found under prog2_data");
+        }
+        File list = new File(this.scratch, "example.list");
+        write(list, input.getAbsolutePath() + "\n");
+        File out = run(list, "example", reference(TreeOptions.PRECISION_DOUBLE));
+        compareFiles(new File(expected, "example_output.txt"), new File(out, "stdout"));
+        compareFiles(new File(expected, "example_output" + File.separator + "MTH00107.ref.fasta.tree"),
+            new File(out, "MTH00107.ref.fasta.tree"));
+        System.out.println("ok   example output reproduced");
+        return;
+    }
+
+    // checkLoaders
+    // Pre-conditions:
+    //        - lists are FASTA list files
+    // Post-conditions:
+    //        - Every input loads to the same species through every loader
+    public void checkLoaders(List<File> lists) throws IOException, InterruptedException {
+        int files = 0;
+        for (File list : lists) {
+            for (File fasta : inputs(list)) {
+                Species[] expected = PhyloTree.loadSpeciesFile(fasta.getPath(), 1);
+                compareSpecies(fasta + " (chunked)", expected, ChunkedFastaParser.parse(fasta.getPath(), 4, 4096));
+                File gzip = new File(this.scratch, fasta.getName() + ".gz");
+                compress(fasta, gzip);
+                compareSpecies(fasta + " (gzip)", expected, PhyloTree.loadSpeciesFile(gzip.getPath(), 4));
+                gzip.delete();
+                files++;
+            }
+        }
+        System.out.println("ok   " + files + " inputs load identically (sequential, chunked, gzip)");
+        return;
+    }
+
+    // checkServer
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - TreeServer reports files it cannot load as errors, and goes on
+    //          to answer the requests that follow
+    public void checkServer() throws IOException, InterruptedException {
+        File input = find(new File(this.root, "prog2_data"), "MTH00107.ref.fasta");
+        File missing = new File(this.scratch, "missing.fasta");
+        File corrupt = new File(this.scratch, "corrupt.fasta.gz");
+        compress(input, corrupt);
+        byte[] bytes = readAll(corrupt);
+        FileOutputStream out = new FileOutputStream(corrupt);
+        out.write(bytes, 0, bytes.length / 2);
+        out.close();
+        String species = PhyloTree.loadSpeciesFile(input.getPath(), 1)[0].getName();
+        String[] requests = {
+            "load a " + input.getAbsolutePath(),
+            "load b " + missing.getAbsolutePath(),
+            "load c " + corrupt.getAbsolutePath(),
+            "count a " + species,
+            "quit"
+        };
+        String[] expected = { "ok a ", "error unable to open file ", "error unable to read file ", "ok 1" };
+
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(classPath());
+        command.add("TreeServer");
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(new File(this.scratch, "server.stderr"));
+        Process server = builder.start();
+        PrintStream requestStream = new PrintStream(server.getOutputStream());
+        for (String request : requests) {
+            requestStream.println(request);
+        }
+        requestStream.close();
+        BufferedReader responses = new BufferedReader(new InputStreamReader(server.getInputStream()));
+        for (int i = 0; i < expected.length; i++) {
+            String response = responses.readLine();
+            if (response == null || !response.startsWith(expected[i])) {
+                fail("TreeServer answered \"" + requests[i] + "\" with \"" + response + "\"");
+            }
+        }
+        responses.close();
+        int status = server.waitFor();
+        if (status != 0) {
+            fail("TreeServer exited with status " + status);
+        }
+        corrupt.delete();
+        System.out.println("ok   server reports a missing and a corrupt file and keeps serving");
+        return;
+    }
+
+    // checkEngines
+    // Pre-conditions:
+    //        - list is a FASTA list file
+    // Post-conditions:
+    //        - Every mode of the fast engine writes what the reference
+    //          engine writes, for each precision
+    public void checkEngines(File list) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String grain = "-Dphylotree.grain=" + SMALL_GRAIN;
+        File dir = new File(this.scratch, "checkpoint");
+        String checkpoint = "-Dphylotree.checkpoint=" + dir.getPath();
+        List<File> files = inputs(list);
+        for (int p = 0; p < PRECISIONS.length; p++) {
+            String precision = PRECISIONS[p];
+            String name = list.getName() + "-" + precision;
+            File expected = run(list, name + "-reference", reference(precision));
+            ArrayList<String[]> modes = new ArrayList<String[]>();
+            modes.add(new String[] { "-Dphylotree.threads=1", "-Dphylotree.matrix=heap" });
+            modes.add(new String[] { "-Dphylotree.threads=2", grain });
+            modes.add(new String[] { "-Dphylotree.threads=4", grain });
+            modes.add(new String[] { "-Dphylotree.threads=4" });
+            if (threads != 2 && threads != 4 && threads != 1) {
+                modes.add(new String[] { "-Dphylotree.threads=" + threads, grain });
+            }
+            modes.add(new String[] { "-Dphylotree.threads=1", "-Dphylotree.matrix=file" });
+            modes.add(new String[] { "-Dphylotree.threads=4", grain, "-Dphylotree.matrix=file",
+                "-Dphylotree.pagecache=" + SMALL_CACHE });
+            modes.add(new String[] { "-Dphylotree.threads=2", "-Dphylotree.workers=2" });
+            modes.add(new String[] { "-Dphylotree.threads=2", "-Dphylotree.workers=2", "-Dphylotree.matrix=file" });
+            modes.add(new String[] { "-Dphylotree.threads=2", grain, checkpoint, "-Dphylotree.checkpoint.interval=0" });
+            for (String[] mode : modes) {
+                String[] flags = Arrays.copyOf(mode, mode.length + 1);
+                flags[mode.length] = "-Dphylotree.precision=" + precision;
+                File actual = run(list, name + "-" + this.runs, flags);
+                compareDirectories(expected, actual, String.join(" ", flags));
+                deleteAll(actual);
+            }
+
+            // the last input is killed once its checkpoint is on disk, some
+            // other input (the first, or the same one in another precision) is
+            // built in the same directory, and then the whole list is built,
+            // resuming the killed input
+            String[] flags = { "-Dphylotree.threads=2", grain, checkpoint, "-Dphylotree.checkpoint.interval=0",
+                "-Dphylotree.precision=" + precision };
+            File killedList = new File(this.scratch, "killed.list");
+            write(killedList, files.get(files.size() - 1).getAbsolutePath() + "\n");
+            boolean killed = interrupt(killedList, name + "-" + this.runs, flags, dir);
+            File otherList = new File(this.scratch, "other.list");
+            write(otherList, files.get(0).getAbsolutePath() + "\n");
+            String[] otherFlags = flags.clone();
+            if (files.size() == 1) {
+                otherFlags[flags.length - 1] = "-Dphylotree.precision=" + PRECISIONS[(p + 1) % PRECISIONS.length];
+            }
+            deleteAll(run(otherList, name + "-" + this.runs, otherFlags));
+            if (checkpoints(dir) != (killed ? 1 : 0)) {
+                fail("building " + files.get(0) + " with " + String.join(" ", otherFlags)
+                    + " changed the checkpoint of " + files.get(files.size() - 1));
+            }
+            File actual = run(list, name + "-" + this.runs, flags);
+            compareDirectories(expected, actual, String.join(" ", flags) + " (resumed)");
+            if (checkpoints(dir) != 0) {
+                fail("a finished build left a checkpoint in " + dir);
+            }
+            deleteAll(actual);
+            deleteAll(expected);
+            System.out.println("ok   " + list.getName() + ", " + precision + ": " + modes.size()
+                + " engine modes" + (killed ? " and a resumed build" : "") + " match the reference engine");
+        }
+        return;
+    }
+
+    // checkBootstrap
+    // Pre-conditions:
+    //        - list is a FASTA list file
+    // Post-conditions:
+    //        - Bootstrap support from the fast engine on several threads is
+    //          the same as from the reference engine
+    public void checkBootstrap(File list) throws IOException, InterruptedException {
+        String replicates = "-Dphylotree.bootstrap=20";
+        File expected = run(list, "bootstrap-reference", new String[] { replicates, "-Dphylotree.engine=reference",
+            "-Dphylotree.threads=1" });
+        String[] flags = { replicates, "-Dphylotree.threads=4", "-Dphylotree.grain=" + SMALL_GRAIN };
+        File actual = run(list, "bootstrap-" + this.runs, flags);
+        compareDirectories(expected, actual, String.join(" ", flags));
+        System.out.println("ok   " + list.getName() + ": bootstrap support matches the reference engine");
+        return;
+    }
+
+    // makeSynthetic
+    // Pre-conditions:
+    //        - numSpecies and length are positive numbers
+    // Post-conditions:
+    //        - Returns a list file naming a new synthetic alignment, evolved
+    //          along a random tree so that it has structure
+    public File makeSynthetic(int numSpecies, int length) throws IOException {
+        String symbols = "ACDEFGHIKLMNPQRSTVWY-";
+        Random random = new Random(241);
+        ArrayList<char[]> sequences = new ArrayList<char[]>();
+        char[] first = new char[length];
+        for (int c = 0; c < length; c++) {
+            first[c] = symbols.charAt(random.nextInt(symbols.length() - 1));
+        }
+        sequences.add(first);
+        while (sequences.size() < numSpecies) {
+            char[] sequence = sequences.get(random.nextInt(sequences.size())).clone();
+            int mutations = 1 + random.nextInt(Math.max(1, length / 10));
+            for (int m = 0; m < mutations; m++) {
+                sequence[random.nextInt(length)] = symbols.charAt(random.nextInt(symbols.length()));
+            }
+            sequences.add(sequence);
+        }
+        File fasta = new File(this.scratch, "synthetic.fasta");
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(fasta)));
+        for (int s = 0; s < sequences.size(); s++) {
+            out.format(">%d|syn|Species_%05d\n", s, s);
+            char[] sequence = sequences.get(s);
+            for (int c = 0; c < length; c += 60) {
+                out.println(new String(sequence, c, Math.min(60, length - c)));
+            }
+        }
+        out.close();
+        File list = new File(this.scratch, "synthetic.list");
+        write(list, fasta.getAbsolutePath() + "\n");
+        return list;
+    }
+
+    // close
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The scratch directory has been removed
+    public void close() {
+        deleteAll(this.scratch);
+        return;
+    }
+
+    // reference
+    // Pre-conditions:
+    //        - precision is one of the TreeOptions.PRECISION_ constants
+    // Post-conditions:
+    //        - Returns the flags of a reference engine run in that precision
+    private static String[] reference(String precision) {
+        return new String[] {
+            "-Dphylotree.engine=reference", "-Dphylotree.threads=1", "-Dphylotree.precision=" + precision
+        };
+    }
+
+    // run
+    // Pre-conditions:
+    //        - list is a FASTA list file
+    // Post-conditions:
+    //        - Program2 has been run on list with flags, from the directory
+    //          holding list; returns a new directory holding its output files
+    //          and its standard output (as "stdout")
+    //        - If Program2 fails, the check fails
+    private File run(File list, String name, String[] flags) throws IOException, InterruptedException {
+        File out = new File(this.scratch, name);
+        int status = start(list, out, flags).waitFor();
+        if (status != 0) {
+            fail("Program2 " + String.join(" ", flags) + " on " + list + " exited with status " + status
+                + " (see " + new File(this.scratch, name + ".stderr") + ")");
+        }
+        return out;
+    }
+
+    // interrupt
+    // Pre-conditions:
+    //        - list is a FASTA list file
+    //        - flags make Program2 checkpoint to dir
+    // Post-conditions:
+    //        - Program2 has been run on list with flags and killed as soon as
+    //          dir held one more complete checkpoint than before; returns true
+    //          if it was killed, false if it finished first
+    //        - Its output directory has been removed
+    private boolean interrupt(File list, String name, String[] flags, File dir) throws IOException, InterruptedException {
+        File out = new File(this.scratch, name);
+        int before = checkpoints(dir);
+        Process process = start(list, out, flags);
+        boolean killed = false;
+        while (process.isAlive()) {
+            if (checkpoints(dir) > before) {
+                process.destroyForcibly();
+                killed = true;
+            }
+            Thread.sleep(5);
+        }
+        process.waitFor();
+        deleteAll(out);
+        return killed;
+    }
+
+    // checkpoints
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of inputs with a complete checkpoint in dir
+    //          (see Checkpoint)
+    private static int checkpoints(File dir) {
+        int count = 0;
+        File[] inputs = dir.listFiles();
+        if (inputs != null) {
+            for (File input : inputs) {
+                if (new File(input, "checkpoint").isFile()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // classPath
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns this JVM's class path with every entry made absolute,
+    //          so that it still holds from the working directory of a run
+    private static String classPath() {
+        ArrayList<String> entries = new ArrayList<String>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry.isEmpty() ? "." : entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    // start
+    // Pre-conditions:
+    //        - list is a FASTA list file
+    // Post-conditions:
+    //        - Returns Program2 running on list with flags, from the directory
+    //          holding list, writing its output files and its standard output
+    //          (as "stdout") to out
+    private Process start(File list, File out, String[] flags) throws IOException {
+        this.runs++;
+        out.mkdirs();
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(Arrays.asList(flags));
+        command.add("-cp");
+        command.add(classPath());
+        command.add("Program2");
+        command.add(list.getAbsolutePath());
+        command.add(out.getAbsolutePath());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(list.getAbsoluteFile().getParentFile());
+        builder.redirectOutput(new File(out, "stdout"));
+        builder.redirectError(new File(this.scratch, out.getName() + ".stderr"));
+        return builder.start();
+    }
+
+    // compareDirectories
+    // Pre-conditions:
+    //        - expected and actual are directories of output files
+    // Post-conditions:
+    //        - If they do not hold the same files with the same bytes, the
+    //          check fails
+    private void compareDirectories(File expected, File actual, String mode) throws IOException {
+        String[] names = expected.list();
+        String[] actualNames = actual.list();
+        Arrays.sort(names);
+        Arrays.sort(actualNames);
+        if (!Arrays.equals(names, actualNames)) {
+            fail(mode + ": wrote " + Arrays.toString(actualNames) + ", expected " + Arrays.toString(names));
+        }
+        for (String name : names) {
+            compareFiles(new File(expected, name), new File(actual, name));
+        }
+        return;
+    }
+
+    // compareFiles
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - If the files differ (or actual is missing), the check fails,
+    //          reporting the first differing line
+    private void compareFiles(File expected, File actual) throws IOException {
+        if (!actual.isFile()) {
+            fail(actual + " was not written");
+        }
+        byte[] want = readAll(expected);
+        byte[] got = readAll(actual);
+        int length = Math.min(want.length, got.length);
+        int line = 1;
+        for (int i = 0; i < length; i++) {
+            if (want[i] != got[i]) {
+                fail(actual + " differs from " + expected + " at byte " + i + " (line " + line + ")");
+            }
+            if (want[i] == '\n') {
+                line++;
+            }
+        }
+        if (want.length != got.length) {
+            fail(actual + " has " + got.length + " bytes, " + expected + " has " + want.length);
+        }
+        return;
+    }
+
+    // compareSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - If the species differ in order, name or sequence, the check fails
+    private void compareSpecies(String what, Species[] expected, Species[] actual) {
+        if (expected.length != actual.length) {
+            fail(what + ": " + actual.length + " species, expected " + expected.length);
+        }
+        for (int s = 0; s < expected.length; s++) {
+            if (!expected[s].getName().equals(actual[s].getName())
+                    || !Arrays.equals(expected[s].getSequence(), actual[s].getSequence())) {
+                fail(what + ": species " + s + " (" + expected[s].getName() + ") differs");
+            }
+        }
+        return;
+    }
+
+    // inputs
+    // Pre-conditions:
+    //        - list is a FASTA list file
+    // Post-conditions:
+    //        - Returns the files it names, resolved against its directory
+    private static List<File> inputs(File list) throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        Scanner in = new Scanner(list);
+        while (in.hasNext()) {
+            File file = new File(in.next());
+            if (!file.isAbsolute()) {
+                file = new File(list.getAbsoluteFile().getParentFile(), file.getPath());
+            }
+            files.add(file);
+        }
+        in.close();
+        return files;
+    }
+
+    // find
+    // Pre-conditions:
+    //        - dir is a directory
+    // Post-conditions:
+    //        - Returns a file called name somewhere below dir, or null
+    private static File find(File dir, String name) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return null;
+        }
+        Arrays.sort(entries);
+        for (File entry : entries) {
+            if (entry.isFile() && entry.getName().equals(name)) {
+                return entry;
+            }
+            if (entry.isDirectory()) {
+                File found = find(entry, name);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    // compress
+    // Pre-conditions:
+    //        - from is a readable file
+    // Post-conditions:
+    //        - to holds from, compressed with gzip
+    private static void compress(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(to));
+            try {
+                in.transferTo(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return;
+    }
+
+    // readAll
+    // Pre-conditions:
+    //        - file is readable
+    // Post-conditions:
+    //        - Returns the contents of file
+    private static byte[] readAll(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.readAllBytes();
+        } finally {
+            in.close();
+        }
+    }
+
+    // write
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - file holds text
+    private static void write(File file, String text) throws IOException {
+        PrintStream out = new PrintStream(file);
+        out.print(text);
+        out.close();
+        return;
+    }
+
+    // deleteAll
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - file, and everything below it if it is a directory, is gone
+    private static void deleteAll(File file) {
+        File[] entries = file.listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                deleteAll(entry);
+            }
+        }
+        file.delete();
+        return;
+    }
+
+    // fail
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Reports the failure and exits with status 1 (the scratch
+    //          directory is kept, so the outputs can be inspected)
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        System.exit(1);
+        return;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 3) {
+            System.err.println("Error: Wrong number of arguments.");
+            System.exit(2);
+        }
+        File root = new File(args.length > 0 ? args[0] : ".");
+        int numSpecies = (args.length > 1) ? Integer.parseInt(args[1]) : 1500;
+        int length = (args.length > 2) ? Integer.parseInt(args[2]) : 600;
+        File data = new File(root, "prog2_data");
+        if (!new File(data, "plants.list").isFile() || !new File(data, "animals.list").isFile()) {
+            System.err.println("Error: Unable to find the lists in " + data);
+            System.exit(1);
+        }
+
+        RegressionCheck check = new RegressionCheck(root);
+        ArrayList<File> lists = new ArrayList<File>();
+        lists.add(new File(data, "plants.list"));
+        lists.add(new File(data, "animals.list"));
+        lists.add(check.makeSynthetic(numSpecies, length));
+
+        check.checkExample();
+        check.checkLoaders(lists);
+        check.checkServer();
+        for (File list : lists) {
+            check.checkEngines(list);
+        }
+        check.checkBootstrap(lists.get(0));
+        check.close();
+        System.out.println("PASS " + check.runs + " runs");
+        return;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * SitePatterns.java
+ *
+ * Defines a compressed view of an alignment, where the columns of the
+ * alignment are folded into weighted unique site patterns
+ *
+ * A column where every species has the same element (including columns
+ * that are all gaps, "-") can never contribute a mismatch, so it is dropped.
+ * Columns that repeat the exact same pattern across species are stored once,
+ * with a weight equal to the number of times the pattern occurs.
+ *
+ * Mismatch counts computed over the patterns are identical to the counts
+ * Species.distance computes over the full alignment, so the distances are
+ * exactly the same.
+ *
+ * The patterns can be written to a file and read back (see write and read),
+ * so that other processes can compute distances without the alignment.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class SitePatterns {
+    private static final int MAGIC = 0x50545350;    // "PTSP"
+    private Species[] species;        // The species, in the order they were loaded
+    private char[][] rows;            // rows[s][p] is the symbol code of species s at pattern p
+    private int[] weights;            // weights[p] is the number of columns folded into pattern p
+    private int[] columnPattern;      // Pattern index of each original column (-1 if dropped)
+    private int length;               // The length of the original (uncompressed) alignment
+
+    // CONSTRUCTOR
+
+    // SitePatterns
+    // Pre-conditions:
+    //        - species is a non-empty array of species whose sequences have
+    //          already been aligned
+    // Post-conditions:
+    //        - The invariant columns have been dropped and the remaining
+    //          columns folded into weighted unique patterns
+    //        - If the sequences are not the same length, it reports an error
+    //          and exits (just like Species.distance)
+    public SitePatterns(Species[] species) {
+        this.species = species;
+        this.length = species[0].getSequence().length;
+        for (int s = 0; s < species.length; s++) {
+            if (species[s].getSequence().length != this.length) {
+                System.err.println("Error: Sequences must already be aligned");
+                System.exit(5);
+            }
+        }
+        HashMap<String, Character> symbols = new HashMap<String, Character>();
+        HashMap<String, Integer> patternIndex = new HashMap<String, Integer>();
+        ArrayList<char[]> columns = new ArrayList<char[]>();
+        ArrayList<Integer> counts = new ArrayList<Integer>();
+        this.columnPattern = new int[this.length];
+        char[] column = new char[species.length];
+        for (int c = 0; c < this.length; c++) {
+            boolean invariant = true;
+            for (int s = 0; s < species.length; s++) {
+                String element = species[s].getSequence()[c];
+                Character code = symbols.get(element);
+                if (code == null) {
+                    code = (char) symbols.size();
+                    symbols.put(element, code);
+                }
+                column[s] = code;
+                if (column[s] != column[0]) {
+                    invariant = false;
+                }
+            }
+            if (invariant) {
+                this.columnPattern[c] = -1;
+            } else {
+                String key = new String(column);
+                Integer p = patternIndex.get(key);
+                if (p == null) {
+                    p = columns.size();
+                    patternIndex.put(key, p);
+                    columns.add(column.clone());
+                    counts.add(0);
+                }
+                counts.set(p, counts.get(p) + 1);
+                this.columnPattern[c] = p;
+            }
+        }
+        // store the patterns species-major, so a pairwise comparison walks
+        // two contiguous rows
+        this.rows = new char[species.length][columns.size()];
+        this.weights = new int[columns.size()];
+        for (int p = 0; p < columns.size(); p++) {
+            char[] pattern = columns.get(p);
+            for (int s = 0; s < species.length; s++) {
+                this.rows[s][p] = pattern[s];
+            }
+            this.weights[p] = counts.get(p);
+        }
+        return;
+    }
+
+    // SitePatterns
+    // Pre-conditions:
+    //        - The arguments are the fields of a SitePatterns, as written by write
+    // Post-conditions:
+    //        - The patterns have been rebuilt from them
+    private SitePatterns(Species[] species, char[][] rows, int[] weights, int[] columnPattern, int length) {
+        this.species = species;
+        this.rows = rows;
+        this.weights = weights;
+        this.columnPattern = columnPattern;
+        this.length = length;
+        return;
+    }
+
+    // read
+    // Pre-conditions:
+    //        - file was written by write
+    // Post-conditions:
+    //        - Returns the patterns stored in the file; the species have
+    //          their names, but empty sequences
+    public static SitePatterns read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a site pattern file: " + file);
+            }
+            int numSpecies = in.readInt();
+            int numPatterns = in.readInt();
+            int length = in.readInt();
+            Species[] species = new Species[numSpecies];
+            for (int s = 0; s < numSpecies; s++) {
+                species[s] = new Species(in.readUTF(), new String[0]);
+            }
+            int[] weights = new int[numPatterns];
+            for (int p = 0; p < numPatterns; p++) {
+                weights[p] = in.readInt();
+            }
+            int[] columnPattern = new int[length];
+            for (int c = 0; c < length; c++) {
+                columnPattern[c] = in.readInt();
+            }
+            char[][] rows = new char[numSpecies][numPatterns];
+            byte[] bytes = new byte[2 * numPatterns];
+            for (int s = 0; s < numSpecies; s++) {
+                in.readFully(bytes);
+                for (int p = 0; p < numPatterns; p++) {
+                    rows[s][p] = (char) (((bytes[2 * p] & 0xFF) << 8) | (bytes[2 * p + 1] & 0xFF));
+                }
+            }
+            return new SitePatterns(species, rows, weights, columnPattern, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    // ACCESSORS
+
+    // getSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the species, in the order they were loaded
+    public Species[] getSpecies() {
+        return this.species;
+    }
+
+    // getNumSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of species
+    public int getNumSpecies() {
+        return this.species.length;
+    }
+
+    // getNumPatterns
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of unique (informative) patterns kept
+    public int getNumPatterns() {
+        return this.weights.length;
+    }
+
+    // getLength
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the length of the original alignment
+    public int getLength() {
+        return this.length;
+    }
+
+    // getWeights
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the weight of each pattern
+    //          (the array is shared, do not modify it)
+    public int[] getWeights() {
+        return this.weights;
+    }
+
+    // getColumnPattern
+    // Pre-conditions:
+    //        - column is between 0 and getLength() - 1
+    // Post-conditions:
+    //        - Returns the pattern the column was folded into,
+    //          or -1 if the column was dropped as invariant
+    public int getColumnPattern(int column) {
+        return this.columnPattern[column];
+    }
+
+    // write
+    // Pre-conditions:
+    //        - weights has one entry per pattern
+    // Post-conditions:
+    //        - The patterns, with weights in place of getWeights(), have
+    //          been written to file
+    public void write(File file, int[] weights) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(this.species.length);
+            out.writeInt(weights.length);
+            out.writeInt(this.length);
+            for (Species s : this.species) {
+                out.writeUTF(s.getName());
+            }
+            for (int weight : weights) {
+                out.writeInt(weight);
+            }
+            for (int c = 0; c < this.length; c++) {
+                out.writeInt(this.columnPattern[c]);
+            }
+            byte[] bytes = new byte[2 * weights.length];
+            for (char[] row : this.rows) {
+                for (int p = 0; p < row.length; p++) {
+                    bytes[2 * p] = (byte) (row[p] >>> 8);
+                    bytes[2 * p + 1] = (byte) row[p];
+                }
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+        return;
+    }
+
+    // mismatches
+    // Pre-conditions:
+    //        - a and b are species indices
+    // Post-conditions:
+    //        - Returns the number of columns of the original alignment
+    //          where species a and b differ
+    public int mismatches(int a, int b) {
+        return mismatches(a, b, this.weights);
+    }
+
+    // mismatches
+    // Pre-conditions:
+    //        - a and b are species indices
+    //        - weights has one entry per pattern
+    // Post-conditions:
+    //        - Returns the sum of weights over the patterns where
+    //          species a and b differ
+    public int mismatches(int a, int b, int[] weights) {
+        char[] row1 = this.rows[a];
+        char[] row2 = this.rows[b];
+        int numDiffs = 0;
+        for (int p = 0; p < row1.length; p++) {
+            if (row1[p] != row2[p]) {
+                numDiffs += weights[p];
+            }
+        }
+        return numDiffs;
+    }
+
+    // distance
+    // Pre-conditions:
+    //        - a and b are species indices
+    // Post-conditions:
+    //        - Returns exactly the value of
+    //          Species.distance(getSpecies()[a], getSpecies()[b])
+    public double distance(int a, int b) {
+        return distance(a, b, mismatches(a, b));
+    }
+
+    // distance
+    // Pre-conditions:
+    //        - a and b are species indices
+    //        - numDiffs is the number of mismatching columns between them
+    // Post-conditions:
+    //        - Returns the mismatch fraction plus the salt term, computed
+    //          the same way as Species.distance
+    public double distance(int a, int b, int numDiffs) {
+        double salt = 1.0 / (this.species[a].getName().hashCode() ^ this.species[b].getName().hashCode());
+        return ((double) numDiffs) / this.length + salt;
+    }
+}
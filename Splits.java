@@ -0,0 +1,183 @@
+/*
+ * Splits.java
+ *
+ * Defines the set of clades (the leaf sets below each non-terminal) of
+ * a phylogenetic tree, so that trees over the same species can be compared
+ *
+ * Each leaf gets a pseudo-random 64-bit hash derived from its label, and
+ * the hash of a clade is the XOR of the hashes of its leaves, i.e. a hashed
+ * form of the clade's leaf bitset. Clade hashes are computed bottom-up in
+ * one pass, so building the set takes time linear in the size of the tree.
+ * Two different clades share a hash with probability about 2^-64.
+ *
+ * The root clade (all leaves) is the same in every tree, so it is not kept
+ * as a clade. The length of the edge above every other node (leaves
+ * included) is kept for weighted comparisons.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class Splits {
+    private HashMap<Long, PhyloTreeNode> clades;   // Non-terminal (other than the root) for each clade hash
+    private HashMap<Long, Double> lengths;         // Length of the edge above each non-root node, by hash
+    private long rootHash;                         // Hash of the whole leaf set
+    private int numLeafs;                          // Number of leaves in the tree
+
+    // CONSTRUCTOR
+
+    // Splits
+    // Pre-conditions:
+    //        - root is the root of a phylogenetic tree with unique leaf labels
+    // Post-conditions:
+    //        - The clade of every non-terminal other than root has been recorded
+    public Splits(PhyloTreeNode root) {
+        this.clades = new HashMap<Long, PhyloTreeNode>();
+        this.lengths = new HashMap<Long, Double>();
+        this.numLeafs = root.getNumLeafs();
+        // iterative post-order, so very deep trees do not overflow the stack
+        IdentityHashMap<PhyloTreeNode, Long> hashes = new IdentityHashMap<PhyloTreeNode, Long>();
+        ArrayDeque<PhyloTreeNode> stack = new ArrayDeque<PhyloTreeNode>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            PhyloTreeNode node = stack.peek();
+            if (node.isLeaf()) {
+                long hash = leafHash(node.getLabel());
+                hashes.put(stack.pop(), hash);
+                if (node != root) {
+                    this.lengths.put(hash, node.getParent().getDistanceToChild());
+                }
+            } else if (!hashes.containsKey(node.getLeftChild())) {
+                stack.push(node.getRightChild());
+                stack.push(node.getLeftChild());
+            } else {
+                stack.pop();
+                long hash = hashes.remove(node.getLeftChild()) ^ hashes.remove(node.getRightChild());
+                hashes.put(node, hash);
+                if (node != root) {
+                    this.clades.put(hash, node);
+                    this.lengths.put(hash, node.getParent().getDistanceToChild());
+                }
+            }
+        }
+        this.rootHash = hashes.get(root);
+        return;
+    }
+
+    // ACCESSORS
+
+    // size
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of (non-root) clades
+    public int size() {
+        return this.clades.size();
+    }
+
+    // getNumLeafs
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of leaves in the tree
+    public int getNumLeafs() {
+        return this.numLeafs;
+    }
+
+    // hashes
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the hashes of all (non-root) clades
+    public Set<Long> hashes() {
+        return this.clades.keySet();
+    }
+
+    // getNode
+    // Pre-conditions:
+    //        - hash is a clade hash
+    // Post-conditions:
+    //        - If the tree has that clade: returns the non-terminal above it
+    //        - Else: returns null
+    public PhyloTreeNode getNode(long hash) {
+        return this.clades.get(hash);
+    }
+
+    // contains
+    // Pre-conditions:
+    //        - hash is a clade hash
+    // Post-conditions:
+    //        - Returns true if the tree has that clade
+    public boolean contains(long hash) {
+        return this.clades.containsKey(hash);
+    }
+
+    // sameLeafs
+    // Pre-conditions:
+    //        - other is non-null
+    // Post-conditions:
+    //        - Returns true if both trees have the same set of leaf labels
+    public boolean sameLeafs(Splits other) {
+        return this.numLeafs == other.numLeafs && this.rootHash == other.rootHash;
+    }
+
+    // robinsonFoulds
+    // Pre-conditions:
+    //        - other is over the same leaves (see sameLeafs)
+    // Post-conditions:
+    //        - Returns the number of clades found in exactly one of the two trees
+    public int robinsonFoulds(Splits other) {
+        int shared = 0;
+        for (long hash : this.clades.keySet()) {
+            if (other.clades.containsKey(hash)) {
+                shared++;
+            }
+        }
+        return this.clades.size() + other.clades.size() - 2 * shared;
+    }
+
+    // weightedRobinsonFoulds
+    // Pre-conditions:
+    //        - other is over the same leaves (see sameLeafs)
+    // Post-conditions:
+    //        - Returns the sum, over every edge in either tree, of the difference
+    //          between its lengths in the two trees (an edge missing from a tree
+    //          has length 0 there)
+    public double weightedRobinsonFoulds(Splits other) {
+        double sum = 0.0;
+        for (Map.Entry<Long, Double> edge : this.lengths.entrySet()) {
+            Double length = other.lengths.get(edge.getKey());
+            sum += Math.abs(edge.getValue() - (length == null ? 0.0 : length));
+        }
+        for (Map.Entry<Long, Double> edge : other.lengths.entrySet()) {
+            if (!this.lengths.containsKey(edge.getKey())) {
+                sum += edge.getValue();
+            }
+        }
+        return sum;
+    }
+
+    // STATIC
+
+    // leafHash
+    // Pre-conditions:
+    //        - label is the label of a leaf
+    // Post-conditions:
+    //        - Returns a well-mixed 64-bit hash of label
+    //          (the same label always gets the same hash)
+    public static long leafHash(String label) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < label.length(); i++) {
+            hash = 31 * hash + label.charAt(i);
+        }
+        // splitmix64 finalizer
+        hash += 0x9E3779B97F4A7C15L;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+}
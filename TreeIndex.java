@@ -0,0 +1,296 @@
+/*
+ * TreeIndex.java
+ *
+ * Defines a read-only index over a built phylogenetic tree, for answering
+ * many label, ancestor and distance queries quickly
+ *
+ * Every node is given an id (in pre-order, left child first), and the
+ * parent, depth and edge weight of each node are stored in flat arrays,
+ * so a query walks arrays instead of searching the tree for labels and
+ * recomputing depths. Once built, the index is never modified, so any
+ * number of threads may query it at once.
+ *
+ * The smallest and largest weighted heights below every node are kept as
+ * well, for k-nearest-species searches (see nearest). Edge weights may be
+ * negative: the total weight of the negative edges is kept too, and the
+ * search loosens its bound by that much, so it still prunes (and is still
+ * exact) on any tree, only less sharply the more negative weight it holds.
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class TreeIndex {
+    private PhyloTreeNode[] nodes;               // nodes[id] is the node with that id
+    private int[] parent;                        // Id of each node's parent (-1 for the root)
+    private int[] depth;                         // Depth of each node (0 for the root)
+    private double[] distanceToChild;            // Edge weight from each node to its children
+    private int[] left;                          // Id of each node's left child (-1 for leaves); the right is left + 1
+    private double[] minHeight;                  // Lightest path weight from each node down to a leaf
+    private double[] maxHeight;                  // Heaviest path weight from each node down to a leaf
+    private double negative;                     // Total weight of the negative edges (0 if none)
+    private double slack;                        // Largest rounding error in the weight of a path
+    private int height;                          // Largest depth of any node
+    private HashMap<String, Integer> labels;     // Id of the node with each label
+
+    // CONSTRUCTOR
+
+    // TreeIndex
+    // Pre-conditions:
+    //        - root is the root of a built phylogenetic tree
+    // Post-conditions:
+    //        - Every node of the tree has been indexed
+    //        - If labels repeat, the label maps to the node that comes first
+    //          in pre-order (the one the recursive search would find)
+    public TreeIndex(PhyloTreeNode root) {
+        int size = 2 * root.getNumLeafs() - 1;
+        this.nodes = new PhyloTreeNode[size];
+        this.parent = new int[size];
+        this.depth = new int[size];
+        this.distanceToChild = new double[size];
+        this.left = new int[size];
+        this.minHeight = new double[size];
+        this.maxHeight = new double[size];
+        this.labels = new HashMap<String, Integer>(2 * size);
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        this.nodes[0] = root;
+        this.parent[0] = -1;
+        stack.push(0);
+        int next = 1;
+        double magnitude = 0.0;
+        while (!stack.isEmpty()) {
+            int id = stack.pop();
+            PhyloTreeNode node = this.nodes[id];
+            this.distanceToChild[id] = node.getDistanceToChild();
+            this.labels.putIfAbsent(node.getLabel(), id);
+            this.left[id] = -1;
+            if (!node.isLeaf()) {
+                // give both children ids now, then visit left before right
+                int left = next++;
+                int right = next++;
+                this.left[id] = left;
+                // both edges down from a node weigh its distanceToChild
+                this.negative += 2 * Math.min(0.0, node.getDistanceToChild());
+                magnitude += 2 * Math.abs(node.getDistanceToChild());
+                this.nodes[left] = node.getLeftChild();
+                this.nodes[right] = node.getRightChild();
+                this.parent[left] = id;
+                this.parent[right] = id;
+                this.depth[left] = this.depth[id] + 1;
+                this.depth[right] = this.depth[id] + 1;
+                this.height = Math.max(this.height, this.depth[left]);
+                stack.push(right);
+                stack.push(left);
+            }
+        }
+
+        // a path has at most 2 * height edges, and adding m weights in any
+        // order is off by at most m / 2 ulps of 1.0 per unit of weight
+        this.slack = (this.height + 1) * Math.ulp(1.0) * magnitude;
+
+        // children have larger ids than their parents, so this is bottom-up
+        for (int id = size - 1; id >= 0; id--) {
+            int left = this.left[id];
+            if (left >= 0) {
+                this.minHeight[id] = this.distanceToChild[id] + Math.min(this.minHeight[left], this.minHeight[left + 1]);
+                this.maxHeight[id] = this.distanceToChild[id] + Math.max(this.maxHeight[left], this.maxHeight[left + 1]);
+            }
+        }
+        return;
+    }
+
+    // ACCESSORS
+
+    // find
+    // Pre-conditions:
+    //        - label is the label of a tree node
+    // Post-conditions:
+    //        - If found: returns the id of the node with that label
+    //        - Else: returns -1
+    public int find(String label) {
+        Integer id = this.labels.get(label);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    // getNode
+    // Pre-conditions:
+    //        - id is a node id, or -1
+    // Post-conditions:
+    //        - Returns the node with that id (null for -1)
+    public PhyloTreeNode getNode(int id) {
+        if (id < 0) {
+            return null;
+        }
+        return this.nodes[id];
+    }
+
+    // getHeight
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the height of the tree (see PhyloTree.nodeHeight)
+    public int getHeight() {
+        return this.height;
+    }
+
+    // getWeightedHeight
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the weighted height of the tree (see
+    //          PhyloTree.weightedNodeHeight)
+    public double getWeightedHeight() {
+        return this.maxHeight[0];
+    }
+
+    // leastCommonAncestor
+    // Pre-conditions:
+    //        - id1 and id2 are node ids
+    // Post-conditions:
+    //        - Returns the id of their deepest common ancestor
+    public int leastCommonAncestor(int id1, int id2) {
+        while (this.depth[id1] > this.depth[id2]) {
+            id1 = this.parent[id1];
+        }
+        while (this.depth[id2] > this.depth[id1]) {
+            id2 = this.parent[id2];
+        }
+        while (id1 != id2) {
+            id1 = this.parent[id1];
+            id2 = this.parent[id2];
+        }
+        return id1;
+    }
+
+    // evolutionaryDistance
+    // Pre-conditions:
+    //        - id1 and id2 are node ids
+    // Post-conditions:
+    //        - Returns the sum of the edge weights on the path between them
+    // Notes:
+    //    - The weights are added in exactly the order
+    //      PhyloTree.findEvolutionaryDistance has always added them, so the
+    //      result is bit-for-bit the same
+    public double evolutionaryDistance(int id1, int id2) {
+        double sum = 0.0;
+        while (this.depth[id1] != this.depth[id2]) {
+            if (this.depth[id1] > this.depth[id2]) {
+                id1 = this.parent[id1];
+                sum += this.distanceToChild[id1];
+            } else {
+                id2 = this.parent[id2];
+                sum += this.distanceToChild[id2];
+            }
+        }
+        while (id2 != id1) {
+            id1 = this.parent[id1];
+            sum += this.distanceToChild[id1];
+            id2 = this.parent[id2];
+            sum += this.distanceToChild[id2];
+        }
+        return sum;
+    }
+
+    // nearest
+    // Pre-conditions:
+    //        - id is the id of a leaf
+    //        - k is a non-negative number
+    // Post-conditions:
+    //        - Returns the ids of the k leaves closest to it (all the other
+    //          leaves, if there are fewer), nearest first, with equally
+    //          distant leaves in label order
+    // Notes:
+    //    - The distance to a leaf below the sibling of an ancestor a is the
+    //      weight of the path up to a, plus a's edge weight, plus the weight
+    //      of the path down from the sibling, which lies between the
+    //      sibling's minHeight and maxHeight. The search walks up the
+    //      ancestors only until no leaf further up can be nearer than the
+    //      heaviest leaf of siblings already seen that hold k leaves between
+    //      them, then expands subtrees lightest first, so subtrees that cannot
+    //      hold one of the k nearest leaves are never opened
+    //    - A leaf further up is reached over edges that are not on the path
+    //      up so far, so it is at least the positive weight of that path
+    //      plus the tree's negative weight away (just the weight of the path
+    //      up, if no edge is negative); a rounding slack keeps leaves at a
+    //      tied distance from being pruned
+    public int[] nearest(int id, int k) {
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        double bound = Double.POSITIVE_INFINITY;     // Distance within which k leaves are known to lie
+        double farthest = Double.NEGATIVE_INFINITY;  // Heaviest leaf of the siblings seen so far
+        int seen = 0;                                // Number of leaves below those siblings
+        double up = 0.0;
+        double upPositive = 0.0;                     // The positive edge weights in up
+        int child = id;
+        while (this.parent[child] >= 0 && k > 0) {
+            int ancestor = this.parent[child];
+            up += this.distanceToChild[ancestor];
+            upPositive += Math.max(0.0, this.distanceToChild[ancestor]);
+            if (upPositive + this.negative > bound + this.slack) {
+                // every leaf above here is at least that far away
+                break;
+            }
+            int sibling = (this.left[ancestor] == child) ? child + 1 : this.left[ancestor];
+            double base = up + this.distanceToChild[ancestor];
+            queue.add(new Candidate(sibling, base));
+            seen += this.nodes[sibling].getNumLeafs();
+            farthest = Math.max(farthest, base + this.maxHeight[sibling]);
+            if (seen >= k) {
+                bound = Math.min(bound, farthest);
+            }
+            child = ancestor;
+        }
+
+        int[] result = new int[Math.min(k, this.nodes[0].getNumLeafs() - 1)];
+        int found = 0;
+        while (found < result.length) {
+            Candidate next = queue.poll();
+            int left = this.left[next.id];
+            if (left < 0) {
+                result[found++] = next.id;
+                continue;
+            }
+            double base = next.base + this.distanceToChild[next.id];
+            queue.add(new Candidate(left, base));
+            queue.add(new Candidate(left + 1, base));
+        }
+        return result;
+    }
+
+    // A subtree waiting to be searched: every leaf below node id is base
+    // plus its path weight down from id away from the query
+    private class Candidate implements Comparable<Candidate> {
+        private int id;
+        private double base;
+        private double distance;     // Distance to the nearest leaf below id
+
+        private Candidate(int id, double base) {
+            this.id = id;
+            this.base = base;
+            this.distance = base + minHeight[id];
+        }
+
+        // nearest first; on a tie subtrees come before leaves (they may hold
+        // a leaf at the same distance), and leaves go in label order
+        public int compareTo(Candidate other) {
+            if (this.distance != other.distance) {
+                return Double.compare(this.distance, other.distance);
+            }
+            boolean leaf = (left[this.id] < 0);
+            boolean otherLeaf = (left[other.id] < 0);
+            if (leaf != otherLeaf) {
+                return leaf ? 1 : -1;
+            }
+            if (leaf) {
+                return nodes[this.id].getLabel().compareTo(nodes[other.id].getLabel());
+            }
+            return this.id - other.id;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * TreeOptions.java
+ *
+ * Collects the settings that control how a PhyloTree is built
+ *
+ * None of these settings change the tree that is built, only how the
+ * work is done (bootstrap replicates add support values, but leave the
+ * tree itself alone), except for a reduced matrix precision, which
+ * rounds the distances being clustered. The defaults can be overridden with system properties,
+ * so the driver program can be used unchanged, e.g.
+ *
+ * java -Dphylotree.matrix=file Program2 fastaListFilename outputDir
+ *
+ *   phylotree.matrix      where the clustering distances live:
+ *                         auto (default), heap or file
+ *   phylotree.precision   how the clustering distances are stored:
+ *                         double (default), float (half the memory;
+ *                         pairs whose distances agree to float precision
+ *                         are then merged in label order) or counts
+ *                         (half the memory; species pairs are kept as
+ *                         exact mismatch counts, so only distances
+ *                         involving merged clusters are rounded)
+ *   phylotree.pagecache   bytes of heap used to cache the pages of a
+ *                         file-backed matrix (default: 64 MiB)
+ *   phylotree.tmpdir      directory for temporary files
+ *   phylotree.threads     worker threads for clustering
+ *                         (default: number of processors)
+ *   phylotree.grain       smallest number of slots a parallel loop hands
+ *                         to one thread (default: 512)
+ *   phylotree.workers     number of separate worker processes that compute
+ *                         the pairwise distances (default: 0, computed by
+ *                         the threads of this process instead)
+ *   phylotree.bootstrap   number of bootstrap replicates used to attach
+ *                         support values to the tree (default: 0, none)
+ *   phylotree.seed        seed for the bootstrap resampling
+ *   phylotree.checkpoint  directory in which to checkpoint the clustering
+ *                         (default: none); a build whose directory holds a
+ *                         checkpoint of the same input resumes from it.
+ *                         Each input is kept in its own subdirectory, so one
+ *                         directory serves a whole list, but only one build
+ *                         of the same input may use it at a time
+ *   phylotree.checkpoint.interval
+ *                         seconds between checkpoints (default: 600)
+ *   phylotree.engine      fast (default), or reference for the naive
+ *                         clustering the fast one is checked against
+ *                         (see ReferenceBuilder); both build the same tree
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+public class TreeOptions {
+    public static final String MATRIX_AUTO = "auto";   // Heap if it fits in the heap budget, else file
+    public static final String MATRIX_HEAP = "heap";   // Always keep the matrix on the heap
+    public static final String MATRIX_FILE = "file";   // Always keep the matrix in a temporary file
+    public static final String PRECISION_DOUBLE = "double";   // Store distances as doubles
+    public static final String PRECISION_FLOAT = "float";     // Store distances as floats
+    public static final String PRECISION_COUNTS = "counts";   // Mismatch counts for species, floats for clusters
+    public static final String ENGINE_FAST = "fast";             // Cluster with ClusterBuilder
+    public static final String ENGINE_REFERENCE = "reference";   // Cluster with ReferenceBuilder
+
+    private String matrixMode;     // One of the MATRIX_ constants
+    private String precision;      // One of the PRECISION_ constants
+    private long heapBudget;       // Largest matrix (in bytes) AUTO will keep on the heap
+    private long pageCacheBytes;   // Heap used for resident pages of a file-backed matrix
+    private File tempDir;          // Where temporary files go (null for the system default)
+    private int threads;           // Number of worker threads (1 runs everything on the caller)
+    private int grain;             // Smallest range of slots handed to one thread
+    private int workers;           // Number of worker processes for the distances (0 for none)
+    private int replicates;        // Number of bootstrap replicates (0 for no support values)
+    private long seed;             // Seed for the bootstrap resampling
+    private File checkpointDir;    // Where checkpoints go (null for no checkpoints)
+    private long checkpointInterval;   // Seconds between checkpoints
+    private String engine;         // One of the ENGINE_ constants
+
+    // CONSTRUCTOR
+
+    // TreeOptions
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The options have been set to their defaults, taking any
+    //          phylotree.* system properties into account
+    public TreeOptions() {
+        this.matrixMode = System.getProperty("phylotree.matrix", MATRIX_AUTO);
+        if (!this.matrixMode.equals(MATRIX_AUTO) && !this.matrixMode.equals(MATRIX_HEAP)
+                && !this.matrixMode.equals(MATRIX_FILE)) {
+            System.err.println("Error: Unknown matrix mode " + this.matrixMode);
+            System.exit(2);
+        }
+        this.precision = System.getProperty("phylotree.precision", PRECISION_DOUBLE);
+        if (!this.precision.equals(PRECISION_DOUBLE) && !this.precision.equals(PRECISION_FLOAT)
+                && !this.precision.equals(PRECISION_COUNTS)) {
+            System.err.println("Error: Unknown matrix precision " + this.precision);
+            System.exit(2);
+        }
+        this.heapBudget = Runtime.getRuntime().maxMemory() / 2;
+        this.pageCacheBytes = Long.getLong("phylotree.pagecache", 64L << 20);
+        if (this.pageCacheBytes < 1) {
+            System.err.println("Error: Page cache size must be positive");
+            System.exit(2);
+        }
+        String dir = System.getProperty("phylotree.tmpdir");
+        if (dir != null) {
+            this.tempDir = new File(dir);
+        }
+        this.threads = Integer.getInteger("phylotree.threads", Runtime.getRuntime().availableProcessors());
+        if (this.threads < 1) {
+            System.err.println("Error: Thread count must be positive");
+            System.exit(2);
+        }
+        this.grain = Integer.getInteger("phylotree.grain", 512);
+        if (this.grain < 1) {
+            System.err.println("Error: Grain must be positive");
+            System.exit(2);
+        }
+        this.workers = Integer.getInteger("phylotree.workers", 0);
+        if (this.workers < 0) {
+            System.err.println("Error: Worker count must not be negative");
+            System.exit(2);
+        }
+        this.replicates = Integer.getInteger("phylotree.bootstrap", 0);
+        this.seed = Long.getLong("phylotree.seed", 241L);
+        String checkpoint = System.getProperty("phylotree.checkpoint");
+        if (checkpoint != null) {
+            this.checkpointDir = new File(checkpoint);
+        }
+        this.checkpointInterval = Long.getLong("phylotree.checkpoint.interval", 600L);
+        this.engine = System.getProperty("phylotree.engine", ENGINE_FAST);
+        if (!this.engine.equals(ENGINE_FAST) && !this.engine.equals(ENGINE_REFERENCE)) {
+            System.err.println("Error: Unknown clustering engine " + this.engine);
+            System.exit(2);
+        }
+        return;
+    }
+
+    // TreeOptions
+    // Pre-conditions:
+    //        - other is non-null
+    // Post-conditions:
+    //        - The options are a copy of other
+    public TreeOptions(TreeOptions other) {
+        this.matrixMode = other.matrixMode;
+        this.precision = other.precision;
+        this.heapBudget = other.heapBudget;
+        this.pageCacheBytes = other.pageCacheBytes;
+        this.tempDir = other.tempDir;
+        this.threads = other.threads;
+        this.grain = other.grain;
+        this.workers = other.workers;
+        this.replicates = other.replicates;
+        this.seed = other.seed;
+        this.checkpointDir = other.checkpointDir;
+        this.checkpointInterval = other.checkpointInterval;
+        this.engine = other.engine;
+        return;
+    }
+
+    // ACCESSORS
+
+    // getMatrixMode
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the matrix mode
+    public String getMatrixMode() {
+        return this.matrixMode;
+    }
+
+    // getPrecision
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the matrix precision
+    public String getPrecision() {
+        return this.precision;
+    }
+
+    // getHeapBudget
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the heap budget in bytes
+    public long getHeapBudget() {
+        return this.heapBudget;
+    }
+
+    // getPageCacheBytes
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the page cache size in bytes
+    public long getPageCacheBytes() {
+        return this.pageCacheBytes;
+    }
+
+    // getTempDir
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the temporary directory (null for the system default)
+    public File getTempDir() {
+        return this.tempDir;
+    }
+
+    // getThreads
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of worker threads
+    public int getThreads() {
+        return this.threads;
+    }
+
+    // getGrain
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the smallest range of slots handed to one thread
+    public int getGrain() {
+        return this.grain;
+    }
+
+    // getWorkers
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of worker processes (0 for none)
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    // getReplicates
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of bootstrap replicates
+    public int getReplicates() {
+        return this.replicates;
+    }
+
+    // getSeed
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the bootstrap seed
+    public long getSeed() {
+        return this.seed;
+    }
+
+    // getCheckpointDir
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the checkpoint directory (null for no checkpoints)
+    public File getCheckpointDir() {
+        return this.checkpointDir;
+    }
+
+    // getCheckpointInterval
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of seconds between checkpoints
+    public long getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    // getEngine
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the clustering engine
+    public String getEngine() {
+        return this.engine;
+    }
+
+    // MODIFIERS
+
+    // setMatrixMode
+    // Pre-conditions:
+    //        - matrixMode is one of the MATRIX_ constants
+    // Post-conditions:
+    //        - Sets this.matrixMode to matrixMode
+    public void setMatrixMode(String matrixMode) {
+        this.matrixMode = matrixMode;
+        return;
+    }
+
+    // setPrecision
+    // Pre-conditions:
+    //        - precision is one of the PRECISION_ constants
+    // Post-conditions:
+    //        - Sets this.precision to precision
+    public void setPrecision(String precision) {
+        this.precision = precision;
+        return;
+    }
+
+    // setHeapBudget
+    // Pre-conditions:
+    //        - heapBudget is a non-negative number of bytes
+    // Post-conditions:
+    //        - Sets this.heapBudget to heapBudget
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+        return;
+    }
+
+    // setPageCacheBytes
+    // Pre-conditions:
+    //        - pageCacheBytes is a positive number of bytes
+    // Post-conditions:
+    //        - Sets this.pageCacheBytes to pageCacheBytes
+    public void setPageCacheBytes(long pageCacheBytes) {
+        this.pageCacheBytes = pageCacheBytes;
+        return;
+    }
+
+    // setTempDir
+    // Pre-conditions:
+    //        - tempDir is a writable directory, or null
+    // Post-conditions:
+    //        - Sets this.tempDir to tempDir
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+        return;
+    }
+
+    // setThreads
+    // Pre-conditions:
+    //        - threads is a positive number
+    // Post-conditions:
+    //        - Sets this.threads to threads
+    public void setThreads(int threads) {
+        this.threads = threads;
+        return;
+    }
+
+    // setGrain
+    // Pre-conditions:
+    //        - grain is a positive number
+    // Post-conditions:
+    //        - Sets this.grain to grain
+    public void setGrain(int grain) {
+        this.grain = grain;
+        return;
+    }
+
+    // setWorkers
+    // Pre-conditions:
+    //        - workers is a non-negative number
+    // Post-conditions:
+    //        - Sets this.workers to workers
+    public void setWorkers(int workers) {
+        this.workers = workers;
+        return;
+    }
+
+    // setReplicates
+    // Pre-conditions:
+    //        - replicates is a non-negative number
+    // Post-conditions:
+    //        - Sets this.replicates to replicates
+    public void setReplicates(int replicates) {
+        this.replicates = replicates;
+        return;
+    }
+
+    // setSeed
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Sets this.seed to seed
+    public void setSeed(long seed) {
+        this.seed = seed;
+        return;
+    }
+
+    // setCheckpointDir
+    // Pre-conditions:
+    //        - checkpointDir is a writable directory, or null
+    // Post-conditions:
+    //        - Sets this.checkpointDir to checkpointDir
+    public void setCheckpointDir(File checkpointDir) {
+        this.checkpointDir = checkpointDir;
+        return;
+    }
+
+    // setCheckpointInterval
+    // Pre-conditions:
+    //        - checkpointInterval is a non-negative number of seconds
+    // Post-conditions:
+    //        - Sets this.checkpointInterval to checkpointInterval
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        return;
+    }
+
+    // setEngine
+    // Pre-conditions:
+    //        - engine is one of the ENGINE_ constants
+    // Post-conditions:
+    //        - Sets this.engine to engine
+    public void setEngine(String engine) {
+        this.engine = engine;
+        return;
+    }
+}
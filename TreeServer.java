@@ -0,0 +1,264 @@
+/*
+ * TreeServer.java
+ *
+ * A long-running query server that keeps PhyloTree objects resident, so
+ * that many questions can be asked of a tree without rebuilding it
+ *
+ * Requests are read one per line from standard input, and one response
+ * line is written to standard output for each, in the same order. Each
+ * request is whitespace separated; most take a list of labels, so many
+ * pairs can be batched into one line:
+ *
+ *   load NAME FASTA_FILE          build a tree and keep it as NAME
+ *                                 -> ok NAME numSpecies
+ *   distance NAME A1 B1 A2 B2 ... evolutionary distance of each pair
+ *                                 -> ok d1 d2 ...
+ *   lca NAME A1 B1 A2 B2 ...      least common ancestor of each pair
+ *                                 -> ok label1 label2 ... ("-" if not found)
+ *   subtree NAME LABEL            species below the node with that label
+ *                                 -> ok species1 species2 ...
+ *   count NAME LABEL              number of species below that node
+ *                                 -> ok count
+ *   nearest NAME K L1 L2 ...      the K species nearest to each species
+ *                                 -> ok s1,s2,... s1,s2,... ("-" if not found)
+ *   height NAME                   -> ok height weightedHeight
+ *   drop NAME                     forget the tree -> ok
+ *   quit                          finish the pending requests and exit
+ *
+ * Anything that goes wrong is reported as "error MESSAGE" on that
+ * request's line. Distances are written with full precision.
+ *
+ * Queries are answered on a pool of worker threads (see TreeOptions for
+ * the thread count) from each tree's read-only TreeIndex, while a writer
+ * thread puts the responses out in request order. load, drop and quit are
+ * handled in order on the reading thread, so later requests always see
+ * their effect.
+ *
+ * usage:
+ *
+ * java TreeServer [fastaFile ...]
+ *
+ * where each fastaFile is loaded up front, named by its file name
+ *
+ * Roman Alonzo
+ *
+ */
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+public class TreeServer {
+    private static final int PRINTING_DEPTH = 100;
+    private static final int MAX_PENDING = 4096;     // Requests in flight before reading pauses
+
+    private ConcurrentHashMap<String, PhyloTree> trees;   // Resident trees, by name
+    private TreeOptions options;                          // How trees are built
+    private ExecutorService workers;                      // Answers queries
+    private BlockingQueue<Future<String>> responses;      // Pending responses, in request order
+
+    // CONSTRUCTOR
+
+    // TreeServer
+    // Pre-conditions:
+    //        - options is non-null
+    // Post-conditions:
+    //        - A server with no trees loaded has been created
+    public TreeServer(TreeOptions options) {
+        this.trees = new ConcurrentHashMap<String, PhyloTree>();
+        this.options = options;
+        this.workers = Executors.newFixedThreadPool(options.getThreads());
+        this.responses = new ArrayBlockingQueue<Future<String>>(MAX_PENDING);
+        return;
+    }
+
+    // load
+    // Pre-conditions:
+    //        - speciesFile contains the path of a FASTA input file
+    // Post-conditions:
+    //        - The tree built from speciesFile is resident as name
+    //        - Returns the number of species in it
+    //        - Throws IOException, leaving the trees as they were, if the file
+    //          cannot be read (FileNotFoundException if it does not exist),
+    //          and IllegalArgumentException if it holds no species or they
+    //          are not aligned
+    public int load(String name, String speciesFile) throws IOException {
+        Species[] species = PhyloTree.readSpeciesFile(speciesFile, this.options.getThreads());
+        if (species.length == 0) {
+            throw new IllegalArgumentException("no species in " + speciesFile);
+        }
+        for (Species s : species) {
+            if (s.getSequence().length != species[0].getSequence().length) {
+                throw new IllegalArgumentException("sequences in " + speciesFile + " are not aligned");
+            }
+        }
+        PhyloTree tree = new PhyloTree(species, PRINTING_DEPTH, this.options);
+        this.trees.put(name, tree);
+        return tree.countAllSpecies();
+    }
+
+    // serve
+    // Pre-conditions:
+    //        - in and out are open
+    // Post-conditions:
+    //        - Every request read from in (up to quit or the end of input)
+    //          has been answered on out, in order
+    public void serve(BufferedReader in, PrintStream out) throws IOException, InterruptedException {
+        Thread writer = new Thread(() -> writeResponses(out));
+        writer.start();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] request = line.trim().split("\\s+");
+            if (request[0].isEmpty()) {
+                continue;
+            }
+            if (request[0].equals("quit")) {
+                break;
+            }
+            if (request[0].equals("load") || request[0].equals("drop")) {
+                // handled in order, so the requests after it see the change
+                this.responses.put(CompletableFuture.completedFuture(answer(request, null)));
+            } else if (request.length < 2 || !this.trees.containsKey(request[1])) {
+                this.responses.put(CompletableFuture.completedFuture("error unknown tree"));
+            } else {
+                PhyloTree tree = this.trees.get(request[1]);
+                this.responses.put(this.workers.submit(() -> answer(request, tree)));
+            }
+        }
+        this.responses.put(CompletableFuture.completedFuture((String) null));
+        writer.join();
+        this.workers.shutdown();
+        return;
+    }
+
+    // writeResponses
+    // Pre-conditions:
+    //        - out is open
+    // Post-conditions:
+    //        - Each response has been written as it became ready, in request
+    //          order, until the null response that marks the end
+    private void writeResponses(PrintStream out) {
+        try {
+            while (true) {
+                String response = this.responses.take().get();
+                if (response == null) {
+                    break;
+                }
+                out.println(response);
+                if (this.responses.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            out.flush();
+            System.err.println("Error: Unable to answer request " + e);
+            System.exit(1);
+        }
+        out.flush();
+        return;
+    }
+
+    // answer
+    // Pre-conditions:
+    //        - request is a split request line
+    //        - tree is the tree it names (null for load and drop)
+    // Post-conditions:
+    //        - Returns the response line for the request
+    private String answer(String[] request, PhyloTree tree) {
+        StringBuilder response = new StringBuilder("ok");
+        String command = request[0];
+        try {
+            if (command.equals("load") && request.length == 3) {
+                response.append(" " + request[1] + " " + load(request[1], request[2]));
+            } else if (command.equals("drop") && request.length == 2) {
+                this.trees.remove(request[1]);
+            } else if (command.equals("distance") && request.length % 2 == 0) {
+                TreeIndex index = tree.getIndex();
+                for (int i = 2; i < request.length; i += 2) {
+                    int id1 = index.find(request[i]);
+                    int id2 = index.find(request[i + 1]);
+                    double distance = Double.POSITIVE_INFINITY;
+                    if (id1 >= 0 && id2 >= 0) {
+                        distance = index.evolutionaryDistance(id1, id2);
+                    }
+                    response.append(' ').append(distance);
+                }
+            } else if (command.equals("lca") && request.length % 2 == 0) {
+                TreeIndex index = tree.getIndex();
+                for (int i = 2; i < request.length; i += 2) {
+                    int id1 = index.find(request[i]);
+                    int id2 = index.find(request[i + 1]);
+                    String label = "-";
+                    if (id1 >= 0 && id2 >= 0) {
+                        label = index.getNode(index.leastCommonAncestor(id1, id2)).getLabel();
+                    }
+                    response.append(' ').append(label);
+                }
+            } else if (command.equals("subtree") && request.length == 3) {
+                List<Species> species = tree.getDescendantSpecies(request[2]);
+                if (species == null) {
+                    return "error unknown label " + request[2];
+                }
+                for (Species s : species) {
+                    response.append(' ').append(s.getName());
+                }
+            } else if (command.equals("count") && request.length == 3) {
+                PhyloTreeNode node = tree.findTreeNodeByLabel(request[2]);
+                if (node == null) {
+                    return "error unknown label " + request[2];
+                }
+                response.append(' ').append(node.getNumLeafs());
+            } else if (command.equals("nearest") && request.length >= 4) {
+                int k = Integer.parseInt(request[2]);
+                if (k < 0) {
+                    return "error bad count " + k;
+                }
+                for (int i = 3; i < request.length; i++) {
+                    List<Species> nearest = tree.nearestSpecies(request[i], k);
+                    response.append(' ');
+                    if (nearest == null) {
+                        response.append('-');
+                        continue;
+                    }
+                    for (int s = 0; s < nearest.size(); s++) {
+                        if (s > 0) {
+                            response.append(',');
+                        }
+                        response.append(nearest.get(s).getName());
+                    }
+                }
+            } else if (command.equals("height") && request.length == 2) {
+                TreeIndex index = tree.getIndex();
+                response.append(' ').append(index.getHeight()).append(' ').append(index.getWeightedHeight());
+            } else {
+                return "error bad request " + command;
+            }
+        } catch (FileNotFoundException e) {
+            return "error unable to open file " + request[2];
+        } catch (IOException e) {
+            return "error unable to read file " + request[2] + " " + e;
+        } catch (Throwable e) {
+            // one bad request (even one that runs out of memory) must not
+            // take down the server and the answers queued behind it
+            return "error " + e;
+        }
+        return response.toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TreeServer server = new TreeServer(new TreeOptions());
+        for (int i = 0; i < args.length; i++) {
+            try {
+                server.load(new File(args[i]).getName(), args[i]);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error: Unable to load " + args[i] + " " + e);
+                System.exit(1);
+            }
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        server.serve(in, out);
+        return;
+    }
+}